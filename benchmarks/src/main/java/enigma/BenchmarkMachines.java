@@ -0,0 +1,134 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/** Randomly generated alphabets, permutations and machines of any size
+ *  for the benchmarks.  Everything is generated from a fixed seed, so
+ *  each run measures the same machines.
+ *  @author Abhiroop Mathur
+ */
+final class BenchmarkMachines {
+
+    /** Not instantiable. */
+    private BenchmarkMachines() {
+    }
+
+    /** Seed of all generated machines and messages. */
+    static final long SEED = 61;
+
+    /** Return an alphabet of SIZE characters, none of which is a blank,
+     *  parenthesis or asterisk. */
+    static Alphabet alphabet(int size) {
+        StringBuilder chars = new StringBuilder();
+        for (char ch = '!'; chars.length() < size; ch++) {
+            if (ch != '(' && ch != ')' && ch != '*' && ch != 0x7f
+                && !Character.isWhitespace(ch)
+                && !Character.isISOControl(ch)) {
+                chars.append(ch);
+            }
+        }
+        return new Alphabet(chars.toString());
+    }
+
+    /** Return the cycles of a random permutation of ALPHA, drawn using
+     *  RANDOM. */
+    static String cycles(Alphabet alpha, Random random) {
+        int n = alpha.size();
+        int[] perm = new int[n];
+        for (int i = 0; i < n; i++) {
+            perm[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = perm[i];
+            perm[i] = perm[j];
+            perm[j] = t;
+        }
+        return cyclesOf(alpha, perm);
+    }
+
+    /** Return the cycles of a random derangement of ALPHA made only of
+     *  2-cycles, as for a reflector, drawn using RANDOM.  ALPHA must have
+     *  an even number of characters. */
+    static String pairs(Alphabet alpha, Random random) {
+        int n = alpha.size();
+        ArrayList<Integer> left = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            left.add(i);
+        }
+        StringBuilder result = new StringBuilder();
+        while (left.size() > 1) {
+            int a = left.remove(random.nextInt(left.size()));
+            int b = left.remove(random.nextInt(left.size()));
+            result.append('(').append(alpha.toChar(a))
+                .append(alpha.toChar(b)).append(") ");
+        }
+        return result.toString();
+    }
+
+    /** Return the cycles of the permutation PERM of ALPHA. */
+    private static String cyclesOf(Alphabet alpha, int[] perm) {
+        StringBuilder result = new StringBuilder();
+        boolean[] done = new boolean[perm.length];
+        for (int i = 0; i < perm.length; i++) {
+            if (!done[i]) {
+                result.append('(');
+                for (int j = i; !done[j]; j = perm[j]) {
+                    done[j] = true;
+                    result.append(alpha.toChar(j));
+                }
+                result.append(") ");
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return a machine with an alphabet of SIZE characters and NUMROTORS
+     *  rotor slots: a reflector, a fixed rotor, and NUMROTORS - 2 moving
+     *  rotors, each with one notch.  Its rotors are inserted and set to
+     *  random settings, and it has a random plugboard of SIZE / 4
+     *  swaps. */
+    static Machine machine(int size, int numRotors) {
+        Random random = new Random(SEED);
+        Alphabet alpha = alphabet(size);
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        String[] names = new String[numRotors];
+        for (int i = 0; i < numRotors; i++) {
+            names[i] = "R" + i;
+            if (i == 0) {
+                rotors.add(new Reflector(names[i],
+                    new Permutation(pairs(alpha, random), alpha)));
+            } else if (i == 1) {
+                rotors.add(new FixedRotor(names[i],
+                    new Permutation(cycles(alpha, random), alpha)));
+            } else {
+                String notch =
+                    Character.toString(alpha.toChar(random.nextInt(size)));
+                rotors.add(new MovingRotor(names[i],
+                    new Permutation(cycles(alpha, random), alpha), notch));
+            }
+        }
+        Machine mach = new Machine(alpha, numRotors, numRotors - 2, rotors);
+        mach.insertRotors(names);
+        mach.setRotors(message(alpha, numRotors - 1, random));
+        StringBuilder plugs = new StringBuilder();
+        String swaps = pairs(alpha, random);
+        for (int i = 0; i < size / 4; i++) {
+            plugs.append(swaps, i * 5, i * 5 + 5);
+        }
+        mach.setPlugboard(new Permutation(plugs.toString(), alpha));
+        return mach;
+    }
+
+    /** Return a random message of LENGTH characters of ALPHA, drawn using
+     *  RANDOM. */
+    static String message(Alphabet alpha, int length, Random random) {
+        char[] result = new char[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = alpha.toChar(random.nextInt(alpha.size()));
+        }
+        return new String(result);
+    }
+
+}
@@ -0,0 +1,62 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of Machine.convert(String) on random messages from 1 KB
+ *  to 100 MB.
+ *  @author Abhiroop Mathur
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class ConvertBenchmark {
+
+    /** Number of characters in the message. */
+    @Param({ "1024", "1048576", "104857600" })
+    public int messageLength;
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "256" })
+    public int alphabetSize;
+
+    /** Number of rotor slots. */
+    @Param({ "3", "5", "8" })
+    public int rotors;
+
+    /** Create the machine and message for the current parameters. */
+    @Setup
+    public void setUp() {
+        _machine = BenchmarkMachines.machine(alphabetSize, rotors);
+        _message = BenchmarkMachines.message(_machine.alphabet(),
+            messageLength, new Random(BenchmarkMachines.SEED));
+    }
+
+    /** Machine.convert(String). */
+    @Benchmark
+    public String convert() {
+        return _machine.convert(_message);
+    }
+
+    /** The machine under test. */
+    private Machine _machine;
+
+    /** The message converted. */
+    private String _message;
+
+}
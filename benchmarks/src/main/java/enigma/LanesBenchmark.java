@@ -0,0 +1,103 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of LaneEngine.convert on many short messages, each with
+ *  its own random rotor settings, comparing the one-message-at-a-time
+ *  engine with the one forMachine chooses (VectorLanes when the Vector
+ *  API is available).
+ *  @author Abhiroop Mathur
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class LanesBenchmark {
+
+    /** Number of messages. */
+    @Param({ "4096" })
+    public int messages;
+
+    /** Number of characters in each message. */
+    @Param({ "64", "256" })
+    public int messageLength;
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "256" })
+    public int alphabetSize;
+
+    /** Number of rotor slots. */
+    @Param({ "5" })
+    public int rotors;
+
+    /** Create the engines, messages and settings for the current
+     *  parameters. */
+    @Setup
+    public void setUp() {
+        Machine mach = BenchmarkMachines.machine(alphabetSize, rotors);
+        Random random = new Random(BenchmarkMachines.SEED);
+        _scalar = new LaneEngine(mach);
+        _chosen = LaneEngine.forMachine(mach);
+        _starts = new int[messages + 1];
+        for (int k = 0; k < messages; k++) {
+            _starts[k + 1] = _starts[k] + messageLength;
+        }
+        _msgs = new int[messages * messageLength];
+        for (int j = 0; j < _msgs.length; j++) {
+            _msgs[j] = random.nextInt(alphabetSize);
+        }
+        _settings = new int[messages * (rotors - 1)];
+        for (int j = 0; j < _settings.length; j++) {
+            _settings[j] = random.nextInt(alphabetSize);
+        }
+        _result = new int[_msgs.length];
+    }
+
+    /** The one-message-at-a-time engine. */
+    @Benchmark
+    public int[] scalar() {
+        _scalar.convert(_msgs, _starts, messages, _settings, null, _result);
+        return _result;
+    }
+
+    /** The engine chosen by LaneEngine.forMachine. */
+    @Benchmark
+    public int[] chosen() {
+        _chosen.convert(_msgs, _starts, messages, _settings, null, _result);
+        return _result;
+    }
+
+    /** The one-message-at-a-time engine. */
+    private LaneEngine _scalar;
+
+    /** The engine chosen by LaneEngine.forMachine. */
+    private LaneEngine _chosen;
+
+    /** The messages, one after another. */
+    private int[] _msgs;
+
+    /** Where each message starts in _msgs. */
+    private int[] _starts;
+
+    /** The initial settings of each message. */
+    private int[] _settings;
+
+    /** Holds the converted messages. */
+    private int[] _result;
+
+}
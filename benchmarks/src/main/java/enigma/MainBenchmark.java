@@ -0,0 +1,126 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** End-to-end benchmarks of Main on generated corpora: random message
+ *  lines, in groups of five letters, under a new settings line every
+ *  hundred lines, in the alphabet of the configuration in config.  Run from the
+ *  project directory, or set config to the configuration's path.
+ *  @author Abhiroop Mathur
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class MainBenchmark {
+
+    /** Configuration file. */
+    @Param({ "testing/tests/correct/default.conf" })
+    public String config;
+
+    /** Approximate size of the corpus in bytes. */
+    @Param({ "1048576", "104857600" })
+    public int corpusSize;
+
+    /** Options given to Main, separated by blanks. */
+    @Param({ "", "--parallel", "--segments", "--pipeline" })
+    public String options;
+
+    /** Settings lines used in turn through the corpus. */
+    static final String[] SETTINGS = {
+        "* B Beta III IV I AXLE (YF) (ZH)",
+        "* B Beta I II III AAAA",
+        "* C Gamma VI VII VIII ZMZM (AB) (CD) (EF)",
+    };
+
+    /** Number of message lines under each settings line. */
+    static final int LINES_PER_SETTING = 100;
+
+    /** Number of letters in each message line. */
+    static final int LINE_LENGTH = 60;
+
+    /** Write the corpus and choose the output file. */
+    @Setup
+    public void setUp() throws IOException {
+        Alphabet alpha = new Alphabet(
+            Files.readString(Paths.get(config)).trim().split("\\s+")[0]);
+        Random random = new Random(BenchmarkMachines.SEED);
+        _input = File.createTempFile("enigma", ".in");
+        _output = File.createTempFile("enigma", ".out");
+        try (PrintWriter out = new PrintWriter(_input)) {
+            long written = 0;
+            for (int k = 0; written < corpusSize; k++) {
+                if (k % LINES_PER_SETTING == 0) {
+                    String setting = SETTINGS[k / LINES_PER_SETTING
+                                              % SETTINGS.length];
+                    out.println(setting);
+                    written += setting.length() + 1;
+                }
+                String msg =
+                    BenchmarkMachines.message(alpha, LINE_LENGTH, random);
+                for (int i = 0; i < LINE_LENGTH; i += 5) {
+                    out.write(msg, i, 5);
+                    out.print(i + 5 < LINE_LENGTH ? ' ' : '\n');
+                }
+                written += LINE_LENGTH / 5 * 6;
+            }
+        }
+        ArrayList<String> args = new ArrayList<>();
+        for (String option : options.split(" ")) {
+            if (!option.isEmpty()) {
+                args.add(option);
+            }
+        }
+        args.add(config);
+        args.add(_input.getPath());
+        args.add(_output.getPath());
+        _args = args.toArray(new String[0]);
+    }
+
+    /** Remove the corpus and output. */
+    @TearDown
+    public void tearDown() {
+        _input.delete();
+        _output.delete();
+    }
+
+    /** Main.main on the corpus. */
+    @Benchmark
+    public void process() {
+        Main.main(_args);
+    }
+
+    /** The corpus. */
+    private File _input;
+
+    /** Where Main's output goes. */
+    private File _output;
+
+    /** Arguments to Main. */
+    private String[] _args;
+
+}
@@ -0,0 +1,133 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Benchmarks of the per-character operations of the engine, for a
+ *  range of alphabet sizes and rotor counts.  Each invocation applies
+ *  the operation to every index (or character) of a fixed random
+ *  sequence, so the scores are times per operation.
+ *  @author Abhiroop Mathur
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitivesBenchmark {
+
+    /** Number of operations per invocation. */
+    static final int OPS = 1 << 12;
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "64", "256", "1024" })
+    public int alphabetSize;
+
+    /** Number of rotor slots. */
+    @Param({ "3", "5", "8" })
+    public int rotors;
+
+    /** Create the machine and inputs for the current parameters. */
+    @Setup
+    public void setUp() {
+        _machine = BenchmarkMachines.machine(alphabetSize, rotors);
+        _alphabet = _machine.alphabet();
+        _permutation = _machine.plugboard();
+        _rotor = _machine.getRotor(rotors - 1);
+        Random random = new Random(BenchmarkMachines.SEED);
+        _indices = new int[OPS];
+        _chars = new char[OPS];
+        for (int i = 0; i < OPS; i++) {
+            _indices[i] = random.nextInt(alphabetSize);
+            _chars[i] = _alphabet.toChar(_indices[i]);
+        }
+    }
+
+    /** Permutation.permute. */
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public void permute(Blackhole bh) {
+        for (int p : _indices) {
+            bh.consume(_permutation.permute(p));
+        }
+    }
+
+    /** Permutation.invert. */
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public void invert(Blackhole bh) {
+        for (int p : _indices) {
+            bh.consume(_permutation.invert(p));
+        }
+    }
+
+    /** Alphabet.toInt. */
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public void toInt(Blackhole bh) {
+        for (char ch : _chars) {
+            bh.consume(_alphabet.toInt(ch));
+        }
+    }
+
+    /** Rotor.convertForward on the fast rotor. */
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public void convertForward(Blackhole bh) {
+        for (int p : _indices) {
+            bh.consume(_rotor.convertForward(p));
+        }
+    }
+
+    /** Machine.advanceRotors. */
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public void advanceRotors() {
+        for (int i = 0; i < OPS; i++) {
+            _machine.advanceRotors();
+        }
+    }
+
+    /** Machine.convert on single indices. */
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public void convertIndex(Blackhole bh) {
+        for (int c : _indices) {
+            bh.consume(_machine.convert(c));
+        }
+    }
+
+    /** The machine under test. */
+    private Machine _machine;
+
+    /** Its alphabet. */
+    private Alphabet _alphabet;
+
+    /** Its plugboard. */
+    private Permutation _permutation;
+
+    /** Its fast rotor. */
+    private Rotor _rotor;
+
+    /** Random alphabet indices. */
+    private int[] _indices;
+
+    /** The characters of _indices. */
+    private char[] _chars;
+
+}
@@ -1,6 +1,6 @@
 package enigma;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import static enigma.EnigmaException.*;
 /** An alphabet of encodable characters.  Provides a mapping from characters
@@ -12,15 +12,40 @@ class Alphabet {
     /** A new alphabet containing CHARS. The K-th character has index
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
-        _chars = new ArrayList<>();
+        int max = 0;
         for (int i = 0; i < chars.length(); i++) {
-            if (_chars.contains(Character.toString((chars.charAt(i))))) {
+            max = Math.max(max, chars.charAt(i));
+        }
+        _direct = new int[Math.min(max + 1, DIRECT_LIMIT)];
+        Arrays.fill(_direct, -1);
+        if (max >= DIRECT_LIMIT) {
+            int capacity = Integer.highestOneBit(chars.length()) * 4;
+            _keys = new char[capacity];
+            _values = new int[capacity];
+            Arrays.fill(_values, -1);
+        } else {
+            _keys = null;
+            _values = null;
+        }
+
+        char[] unique = new char[chars.length()];
+        int size = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            char ch = chars.charAt(i);
+            if (toInt(ch) >= 0) {
                 continue;
             }
-            _chars.add(Character.toString(chars.charAt(i)));
+            if (ch < DIRECT_LIMIT) {
+                _direct[ch] = size;
+            } else {
+                int h = slot(ch);
+                _keys[h] = ch;
+                _values[h] = size;
+            }
+            unique[size] = ch;
+            size += 1;
         }
-
-
+        _chars = Arrays.copyOf(unique, size);
     }
 
     /** A default alphabet of all upper-case characters. */
@@ -30,32 +55,69 @@ class Alphabet {
 
     /** Returns the size of the alphabet. */
     int size() {
-        return _chars.size();
+        return _chars.length;
     }
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        return _chars.contains(Character.toString(ch));
+        return toInt(ch) >= 0;
     }
 
     /** Returns character number INDEX in the alphabet, where
      *  0 <= INDEX < size(). */
     char toChar(int index) {
         try {
-            return _chars.get(index).charAt(0);
+            return _chars[index];
         } catch (IndexOutOfBoundsException EnigmaException) {
             throw error("Index out of bounds!");
         }
     }
 
     /** Returns the index of character CH which must be in
-     *  the alphabet. This is the inverse of toChar(). */
+     *  the alphabet. This is the inverse of toChar(). Returns -1 if CH
+     *  is not in the alphabet. */
     int toInt(char ch) {
-        return _chars.indexOf(Character.toString(ch));
+        if (ch < _direct.length) {
+            return _direct[ch];
+        }
+        if (_keys == null) {
+            return -1;
+        }
+        return _values[slot(ch)];
     }
 
-    /** Characters. */
-    protected ArrayList<String> _chars;
+    /** Return the slot of _keys that holds CH, or the empty slot where it
+     *  would go. */
+    private int slot(char ch) {
+        int mask = _keys.length - 1;
+        int h = (ch * HASH_MULTIPLIER >>> HASH_SHIFT) & mask;
+        while (_values[h] >= 0 && _keys[h] != ch) {
+            h = (h + 1) & mask;
+        }
+        return h;
+    }
+
+    /** Characters below this value are looked up in _direct. */
+    private static final int DIRECT_LIMIT = 256;
+
+    /** Multiplier used to scatter characters in _keys. */
+    private static final int HASH_MULTIPLIER = 0x9E3779B1;
+
+    /** Shift applied to the scattered character. */
+    private static final int HASH_SHIFT = 16;
+
+    /** Characters, in index order. */
+    private final char[] _chars;
+
+    /** Index of each character below DIRECT_LIMIT, or -1. */
+    private final int[] _direct;
+
+    /** Open-addressed table of the characters at or above DIRECT_LIMIT,
+     *  or null if there are none. */
+    private final char[] _keys;
 
+    /** Index of the character in the same slot of _keys, or -1 for an
+     *  empty slot. */
+    private final int[] _values;
 
 }
@@ -53,4 +53,26 @@ public class AlphabetTest {
             assertEquals(i, test2.toInt(test2.toChar(i)));
         }
     }
+
+    @Test
+    public void duplicateTest() {
+        Alphabet dup = new Alphabet("ABAC");
+        assertEquals(3, dup.size());
+        assertEquals(2, dup.toInt('C'));
+        assertEquals(-1, dup.toInt('D'));
+    }
+
+    String wideString = "AB\u00e9\u03a9\u4e2d\uffff0";
+    Alphabet wide = new Alphabet(wideString);
+    @Test
+    public void wideCharsTest() {
+        assertEquals(wideString.length(), wide.size());
+        for (int i = 0; i < wide.size(); i++) {
+            assertEquals(i, wide.toInt(wideString.charAt(i)));
+            assertEquals(wideString.charAt(i), wide.toChar(i));
+        }
+        assertFalse(wide.contains('\u03a8'));
+        assertFalse(wide.contains('C'));
+        assertEquals(-1, wide.toInt('\u4e2e'));
+    }
 }
@@ -0,0 +1,88 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static enigma.EnigmaException.*;
+
+/** A bounded queue passing items from one thread to another.  Exactly one
+ *  thread may put items and exactly one other may take them, which lets
+ *  the queue do without locks: each side publishes its position in the
+ *  ring with an ordered write that the other side reads.  A thread that
+ *  finds the ring full (or empty) spins briefly and then parks until
+ *  there is room (or an item), so that a slow consumer holds back its
+ *  producer.
+ *  @author Abhiroop Mathur
+ */
+final class BatchRing<T> {
+
+    /** A ring holding at most CAPACITY items, which must be a power of
+     *  two. */
+    @SuppressWarnings("unchecked")
+    BatchRing(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw error("ring capacity %d is not a power of two", capacity);
+        }
+        _items = (T[]) new Object[capacity];
+        _mask = capacity - 1;
+    }
+
+    /** Add ITEM, waiting while the ring is full. */
+    void put(T item) {
+        long tail = _tail.get();
+        for (int tries = 0; tail - _head.get() > _mask; tries++) {
+            backOff(tries);
+        }
+        _items[(int) tail & _mask] = item;
+        _tail.lazySet(tail + 1);
+    }
+
+    /** Remove and return the oldest item, waiting while the ring is
+     *  empty. */
+    T take() {
+        long head = _head.get();
+        for (int tries = 0; head == _tail.get(); tries++) {
+            backOff(tries);
+        }
+        int k = (int) head & _mask;
+        T item = _items[k];
+        _items[k] = null;
+        _head.lazySet(head + 1);
+        return item;
+    }
+
+    /** Wait a little before the next of TRIES attempts to use the
+     *  ring. */
+    private static void backOff(int tries) {
+        if (tries < SPINS) {
+            Thread.onSpinWait();
+        } else if (tries < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /** Number of times to spin before yielding. */
+    private static final int SPINS = 64;
+
+    /** Number of times to yield before parking. */
+    private static final int YIELDS = 16;
+
+    /** Time parked between attempts, in nanoseconds. */
+    private static final long PARK_NANOS = 20_000;
+
+    /** The slots of the ring. */
+    private final T[] _items;
+
+    /** Index of a slot in _items is a position modulo _items.length, which
+     *  is _mask + 1. */
+    private final int _mask;
+
+    /** Number of items ever taken.  Written only by the consumer. */
+    private final AtomicLong _head = new AtomicLong();
+
+    /** Number of items ever put.  Written only by the producer. */
+    private final AtomicLong _tail = new AtomicLong();
+
+}
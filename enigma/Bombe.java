@@ -0,0 +1,513 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+import static enigma.SearchSupport.*;
+
+/** A search, in the manner of the Turing-Welchman bombe, for the rotor
+ *  orders, start positions and plugboards under which a ciphertext
+ *  contains a known piece of plaintext (the crib) at a given offset.
+ *
+ *  The crib and the ciphertext beneath it form the menu: a graph whose
+ *  nodes are characters and which has an edge between the crib
+ *  character and ciphertext character at each position.  With the rotors
+ *  at a given start position, the rotors and reflector alone (without
+ *  the plugboard) map character Y to some E_I(Y) at crib position I.  If
+ *  A and B are joined at position I and the plugboard maps A to Y, it
+ *  must map B to E_I(Y); and since the plugboard is an involution, it
+ *  must also map Y to A (the diagonal board).  Starting from a guess for
+ *  the most connected character of the menu, the search follows these
+ *  implications, each character keeping a bitset of the characters it
+ *  would have to be plugged to.  A guess that requires some character to
+ *  be plugged to two others is impossible; one that does not is a stop,
+ *  reported with the plugboard pairs it implies.
+ *
+ *  Every start position of every rotor order is tried.  The work is
+ *  divided into units, each one rotor order with one setting of the
+ *  rotors that do not move, which a fork/join pool spreads over its
+ *  threads by work stealing.
+ *  @author Abhiroop Mathur
+ */
+class Bombe {
+
+    /** A rotor order, start position and plugboard that are consistent
+     *  with the crib. */
+    static final class Stop {
+
+        /** A stop with the rotors named ROTORS (the reflector first) at
+         *  the settings in SETTING, and the plugboard given by the cycles
+         *  PLUGBOARD. */
+        Stop(String[] rotors, String setting, String plugboard) {
+            _rotors = rotors;
+            _setting = setting;
+            _plugboard = plugboard;
+        }
+
+        /** Return the names of my rotors, the reflector first. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return the settings of my rotors, as for Machine.setRotors. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return the cycles of my plugboard. */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        /** Return me as a settings line of the input to Main. */
+        @Override
+        public String toString() {
+            String line = "* " + String.join(" ", _rotors) + " " + _setting;
+            return _plugboard.isEmpty() ? line : line + " " + _plugboard;
+        }
+
+        /** Names of my rotors. */
+        private final String[] _rotors;
+
+        /** Settings of my rotors. */
+        private final String _setting;
+
+        /** Cycles of my plugboard. */
+        private final String _plugboard;
+    }
+
+    /** A search of the rotor orders ORDERS, each giving the names of the
+     *  rotors of MACH for its slots (the reflector first), for the start
+     *  positions under which CIPHERTEXT holds CRIB at OFFSET.  Blanks in
+     *  CIPHERTEXT and CRIB are ignored, and OFFSET counts the characters
+     *  of CIPHERTEXT other than blanks. */
+    Bombe(Machine mach, String ciphertext, String crib, int offset,
+          List<String[]> orders) {
+        _machine = mach;
+        _alphabet = mach.alphabet();
+        _size = _alphabet.size();
+        _numRotors = mach.numRotors();
+        _first = StepTable.firstMoving(mach);
+        _orders = new ArrayList<>(orders);
+        int[] cipher = indices(_alphabet, ciphertext, "Ciphertext");
+        int[] plain = indices(_alphabet, crib, "Crib");
+        if (offset < 0 || offset + plain.length > cipher.length) {
+            throw error("crib does not fit in the ciphertext at %d", offset);
+        }
+        if (plain.length == 0) {
+            throw error("crib is empty");
+        }
+        _offset = offset;
+        _cribLength = plain.length;
+        buildMenu(plain, Arrays.copyOfRange(cipher, offset,
+                                            offset + plain.length));
+
+        long states = StepTable.statesFor(mach);
+        long fixed = 1;
+        for (int i = 1; i < _first; i++) {
+            fixed *= _size;
+        }
+        if (states < 0 || states > StepTable.MAX_STATES
+            || KeystreamTable.bytesFor(mach) < 0
+            || fixed * _orders.size() > Integer.MAX_VALUE) {
+            throw error("too many rotor positions to search");
+        }
+        _states = (int) states;
+        _fixed = (int) fixed;
+    }
+
+    /** Return the number of start positions searched. */
+    long positions() {
+        return (long) _orders.size() * _fixed * _states;
+    }
+
+    /** Search all rotor orders and start positions using POOL, passing
+     *  each stop to STOPS and, after each unit of work, reporting to
+     *  PROGRESS if it is not null, as for run(STOPS, PROGRESS).invoke(POOL).
+     *  Returns when the search is complete. */
+    void search(ForkJoinPool pool, Consumer<Stop> stops, Progress progress) {
+        run(stops, progress).invoke(pool);
+    }
+
+    /** Return a search of all rotor orders and start positions that
+     *  passes each stop to STOPS and, after each unit of work, reports to
+     *  PROGRESS if it is not null.  STOPS and PROGRESS may be called
+     *  concurrently from the threads of the pool that runs the search. */
+    Run run(Consumer<Stop> stops, Progress progress) {
+        return new Run(stops, progress);
+    }
+
+    /** One search of all rotor orders and start positions, which any
+     *  thread may cancel at any time, even before it starts.  Each search
+     *  has its own cancellation and progress, so that cancelling one never
+     *  affects another. */
+    final class Run {
+
+        /** A search passing stops to STOPS and reporting to PROGRESS. */
+        private Run(Consumer<Stop> stops, Progress progress) {
+            _stops = stops;
+            _progress = progress;
+        }
+
+        /** Do this search, which may be done only once, using POOL.
+         *  Returns when it is complete or has been cancelled. */
+        void invoke(ForkJoinPool pool) {
+            pool.invoke(new Search(this, 0, _orders.size() * _fixed));
+        }
+
+        /** Stop this search as soon as possible, or keep it from starting
+         *  if it has not yet started. */
+        void cancel() {
+            _cancelled = true;
+        }
+
+        /** Return the number of start positions tried so far. */
+        long done() {
+            return _done.sum();
+        }
+
+        /** Receives stops. */
+        private final Consumer<Stop> _stops;
+
+        /** Receives progress reports, or null. */
+        private final Progress _progress;
+
+        /** Number of start positions tried. */
+        private final LongAdder _done = new LongAdder();
+
+        /** True once this search has been cancelled. */
+        private volatile boolean _cancelled;
+    }
+
+    /** Build the menu of the crib PLAIN over the ciphertext CIPHER,
+     *  which has the same length, and choose its test character. */
+    private void buildMenu(int[] plain, int[] cipher) {
+        int[] degree = new int[_size];
+        for (int i = 0; i < plain.length; i++) {
+            degree[plain[i]] += 1;
+            degree[cipher[i]] += 1;
+        }
+        _edgeStart = new int[_size + 1];
+        for (int c = 0; c < _size; c++) {
+            _edgeStart[c + 1] = _edgeStart[c] + degree[c];
+            if (degree[c] > degree[_test]) {
+                _test = c;
+            }
+        }
+        _edgeOther = new int[_edgeStart[_size]];
+        _edgePosition = new int[_edgeStart[_size]];
+        int[] next = Arrays.copyOf(_edgeStart, _size);
+        for (int i = 0; i < plain.length; i++) {
+            _edgeOther[next[plain[i]]] = cipher[i];
+            _edgePosition[next[plain[i]]++] = i;
+            _edgeOther[next[cipher[i]]] = plain[i];
+            _edgePosition[next[cipher[i]]++] = i;
+        }
+    }
+
+    /** Searches units LO .. HI-1 of the search space for a Run, unit U
+     *  being rotor order U / _fixed with the setting numbered U % _fixed of
+     *  the rotors that do not move. */
+    private class Search extends RecursiveAction {
+
+        /** A search of units LO .. HI-1 for RUN. */
+        Search(Run run, int lo, int hi) {
+            _run = run;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_run._cancelled) {
+                return;
+            }
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Search(_run, _lo, mid),
+                          new Search(_run, mid, _hi));
+                return;
+            }
+            new Tester(_lo / _fixed, _lo % _fixed).run(_run);
+            _run._done.add(_states);
+            if (_run._progress != null) {
+                _run._progress.report(_run.done(), positions());
+            }
+        }
+
+        /** The search I am part of. */
+        private final Run _run;
+
+        /** First unit. */
+        private final int _lo;
+
+        /** One past the last unit. */
+        private final int _hi;
+
+        /** Version of my serialized form. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Tests the start positions of one rotor order with one setting of
+     *  the rotors that do not move. */
+    private class Tester {
+
+        /** A tester for rotor order ORDER (an index into _orders) with
+         *  the setting numbered FIXED of the rotors that do not move. */
+        Tester(int order, int fixed) {
+            _rotors = _orders.get(order);
+            Machine mach = _machine.copy();
+            mach.insertRotors(_rotors);
+            mach.setPlugboard(new Permutation("", _alphabet));
+            _posn = new int[_numRotors];
+            for (int i = _first - 1; i > 0; i--) {
+                _posn[i] = fixed % _size;
+                mach.getRotor(i).set(_posn[i]);
+                fixed /= _size;
+            }
+            _steps = mach.steps();
+            _table = KeystreamTable.build(mach, _steps, Long.MAX_VALUE,
+                                          OFF_HEAP);
+            _cribStates = new int[_cribLength];
+            _words = (_size + Long.SIZE - 1) / Long.SIZE;
+            _live = new long[_size * _words];
+            _count = new int[_size];
+            _queue = new int[_size * _size];
+        }
+
+        /** Test every start position of the moving rotors, passing each
+         *  stop to the receiver of RUN, until RUN is cancelled. */
+        void run(Run run) {
+            for (int s = 0; s < _states && !run._cancelled; s++) {
+                int state = _steps.jump(s, _offset + 1);
+                for (int i = 0; i < _cribLength; i++) {
+                    _cribStates[i] = state;
+                    state = _steps.next(state);
+                }
+                for (int x = 0; x < _size; x++) {
+                    if (propagate(x)) {
+                        _steps.decode(s, _posn);
+                        run._stops.accept(stop());
+                    }
+                }
+            }
+        }
+
+        /** Return true iff supposing that the plugboard maps the test
+         *  character to X, and following the implications of the menu
+         *  and the diagonal board, never requires a character to be
+         *  plugged to two others.  The implied pairs are left in _live
+         *  and _count. */
+        private boolean propagate(int x) {
+            for (int k = 0; k < _tail; k++) {
+                int w = _queue[k];
+                _live[w / _size * _words + w % _size / Long.SIZE] = 0;
+                _count[w / _size] = 0;
+            }
+            _tail = 0;
+            if (!light(_test, x)) {
+                return false;
+            }
+            for (int head = 0; head < _tail; head++) {
+                int a = _queue[head] / _size;
+                int y = _queue[head] % _size;
+                for (int k = _edgeStart[a]; k < _edgeStart[a + 1]; k++) {
+                    int e = _table.convert(_cribStates[_edgePosition[k]], y);
+                    if (!light(_edgeOther[k], e)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Record that A must be plugged to Y, and so Y to A, queueing
+         *  each implication not already known.  Returns false iff that
+         *  requires A or Y to be plugged to two characters. */
+        private boolean light(int a, int y) {
+            return wire(a, y) && wire(y, a);
+        }
+
+        /** Record that A must be plugged to Y, queueing the implication if
+         *  it is new.  Returns false iff A must then be plugged to two
+         *  characters. */
+        private boolean wire(int a, int y) {
+            int word = a * _words + y / Long.SIZE;
+            long bit = 1L << (y % Long.SIZE);
+            if ((_live[word] & bit) != 0) {
+                return true;
+            }
+            _live[word] |= bit;
+            _queue[_tail] = a * _size + y;
+            _tail += 1;
+            _count[a] += 1;
+            return _count[a] == 1;
+        }
+
+        /** Return the stop for the current start position _posn and the
+         *  pairs implied by the last propagation. */
+        private Stop stop() {
+            StringBuilder plugboard = new StringBuilder();
+            for (int a = 0; a < _size; a++) {
+                if (_count[a] == 0) {
+                    continue;
+                }
+                int y = 0;
+                while ((_live[a * _words + y / Long.SIZE]
+                        & (1L << (y % Long.SIZE))) == 0) {
+                    y += 1;
+                }
+                if (a < y) {
+                    if (plugboard.length() > 0) {
+                        plugboard.append(' ');
+                    }
+                    plugboard.append('(').append(_alphabet.toChar(a))
+                        .append(_alphabet.toChar(y)).append(')');
+                }
+            }
+            char[] setting = new char[_numRotors - 1];
+            for (int i = 1; i < _numRotors; i++) {
+                setting[i - 1] = _alphabet.toChar(_posn[i]);
+            }
+            return new Stop(_rotors, new String(setting),
+                            plugboard.toString());
+        }
+
+        /** Names of the rotors in my order. */
+        private final String[] _rotors;
+
+        /** Settings of the rotors at the start position being tested. */
+        private final int[] _posn;
+
+        /** Stepping of the moving rotors. */
+        private final StepTable _steps;
+
+        /** Conversions by the rotors alone in each state. */
+        private final KeystreamTable _table;
+
+        /** The state of the moving rotors at each crib position. */
+        private final int[] _cribStates;
+
+        /** Number of longs in each character's bitset. */
+        private final int _words;
+
+        /** Bit Y of the bitset of character A, at _live[A * _words + Y /
+         *  64], is set iff A must be plugged to Y. */
+        private final long[] _live;
+
+        /** Number of bits set in each character's bitset. */
+        private final int[] _count;
+
+        /** Each implication A -> Y found, as A * _size + Y, in the order
+         *  found. */
+        private final int[] _queue;
+
+        /** Number of implications in _queue. */
+        private int _tail;
+    }
+
+    /** Search for the settings of the ciphertext in the input, as
+     *  specified by ARGS: the name of a configuration file, a crib, the
+     *  offset of the crib in the ciphertext, and optionally the name of
+     *  the file holding the ciphertext, which otherwise comes from the
+     *  standard input.  Each stop is printed as a settings line.  Options
+     *  --rotors="NAMES" limits the search to one rotor order,
+     *  --threads=N sets the number of threads, and --progress reports
+     *  progress on the standard error. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--rotors=(.+) --threads=(\\d+) --progress "
+                                + "--=(.*){3,4}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.Bombe [--rotors=NAMES] "
+                            + "[--threads=N] [--progress] "
+                            + "CONFIG CRIB OFFSET [INPUT]");
+            }
+            List<String> files = options.get("--");
+            Machine mach = Main.readMachine(files.get(0));
+            List<String[]> orders = orders(mach, options);
+            String ciphertext =
+                readText(files.size() > 3 ? files.get(3) : null);
+            int offset;
+            try {
+                offset = Integer.parseInt(files.get(2));
+            } catch (NumberFormatException excp) {
+                throw error("bad crib offset: %s", files.get(2));
+            }
+            Bombe bombe = new Bombe(mach, ciphertext, files.get(1), offset,
+                                    orders);
+            ArrayList<String> found = new ArrayList<>();
+            bombe.search(pool(options), stop -> {
+                synchronized (found) {
+                    found.add(stop.toString());
+                }
+            }, progress(options));
+            found.sort(null);
+            for (String stop : found) {
+                System.out.println(stop);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Size in bytes above which a keystream table is kept outside the
+     *  Java heap. */
+    private static final long OFF_HEAP = 1 << 24;
+
+    /** The machine whose rotors are searched. */
+    private final Machine _machine;
+
+    /** Alphabet of _machine. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Slot of the leftmost rotor that can move. */
+    private final int _first;
+
+    /** The rotor orders searched. */
+    private final List<String[]> _orders;
+
+    /** Offset of the crib in the ciphertext. */
+    private final int _offset;
+
+    /** Number of characters in the crib. */
+    private final int _cribLength;
+
+    /** Number of states of the moving rotors. */
+    private final int _states;
+
+    /** Number of settings of the rotors that do not move. */
+    private final int _fixed;
+
+    /** The menu character with the most edges, whose plugging is
+     *  guessed. */
+    private int _test;
+
+    /** The edges of character C are at positions _edgeStart[C] ..
+     *  _edgeStart[C+1]-1 of _edgeOther and _edgePosition. */
+    private int[] _edgeStart;
+
+    /** The character at the other end of each edge. */
+    private int[] _edgeOther;
+
+    /** The crib position of each edge. */
+    private int[] _edgePosition;
+
+}
@@ -0,0 +1,421 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+import static enigma.SearchSupport.*;
+
+/** A ciphertext-only search for the rotor order and start position of a
+ *  message.  The ciphertext is decrypted from every start position of
+ *  every rotor order with no plugboard, and each decryption is scored by
+ *  its index of coincidence: the chance that two characters drawn from
+ *  different places in it are the same.  Natural language repeats some
+ *  characters far more than others, so its index is well above that of
+ *  the near-uniform output of a wrong setting, and the right setting
+ *  usually scores among the best even though a missing plugboard garbles
+ *  part of the text.  The best few candidates are kept.
+ *
+ *  Each candidate is scored from a KeySweep, so costs one table read
+ *  and one histogram update per character, and nothing is allocated for
+ *  it.  The work is divided into units, each one rotor order with one
+ *  setting of the rotors that do not move, which a fork/join pool spreads
+ *  over its threads; each task keeps its own best candidates, and those
+ *  of the tasks are merged as they join.
+ *  @author Abhiroop Mathur
+ */
+class CoincidenceSearch {
+
+    /** A rotor order and start position, with the index of coincidence
+     *  of the ciphertext decrypted from there. */
+    static final class Candidate {
+
+        /** A candidate with the rotors named ROTORS (the reflector first)
+         *  at the settings in SETTING, giving index of coincidence
+         *  INDEX. */
+        Candidate(String[] rotors, String setting, double index) {
+            _rotors = rotors;
+            _setting = setting;
+            _index = index;
+        }
+
+        /** Return the names of my rotors, the reflector first. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return the settings of my rotors, as for Machine.setRotors. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return my index of coincidence. */
+        double index() {
+            return _index;
+        }
+
+        /** Return my index of coincidence followed by me as a settings
+         *  line of the input to Main. */
+        @Override
+        public String toString() {
+            return String.format("%.5f * %s %s", _index,
+                                 String.join(" ", _rotors), _setting);
+        }
+
+        /** Names of my rotors. */
+        private final String[] _rotors;
+
+        /** Settings of my rotors. */
+        private final String _setting;
+
+        /** Index of coincidence. */
+        private final double _index;
+    }
+
+    /** A search of the rotor orders ORDERS, each giving the names of the
+     *  rotors of MACH for its slots (the reflector first), for the TOP
+     *  start positions from which CIPHERTEXT decrypts with the highest
+     *  index of coincidence.  Blanks in CIPHERTEXT are ignored. */
+    CoincidenceSearch(Machine mach, String ciphertext, List<String[]> orders,
+                      int top) {
+        _machine = mach;
+        _alphabet = mach.alphabet();
+        _size = _alphabet.size();
+        _numRotors = mach.numRotors();
+        _orders = new ArrayList<>(orders);
+        _cipher = indices(_alphabet, ciphertext, "Ciphertext");
+        if (_cipher.length < 2) {
+            throw error("ciphertext is too short");
+        }
+        if (top <= 0) {
+            throw error("must keep at least one candidate");
+        }
+        _top = top;
+
+        long states = StepTable.statesFor(mach);
+        long fixed = 1;
+        for (int i = 1; i < StepTable.firstMoving(mach); i++) {
+            fixed *= _size;
+        }
+        if (states < 0 || states > StepTable.MAX_STATES
+            || KeystreamTable.bytesFor(mach) < 0
+            || fixed * _orders.size() > Integer.MAX_VALUE) {
+            throw error("too many rotor positions to search");
+        }
+        _states = (int) states;
+        _fixed = (int) fixed;
+    }
+
+    /** Return the number of start positions searched. */
+    long positions() {
+        return (long) _orders.size() * _fixed * _states;
+    }
+
+    /** Search all rotor orders and start positions using POOL, reporting
+     *  to PROGRESS, if it is not null, after each unit of work.  PROGRESS
+     *  may be called concurrently from POOL's threads.  Returns the best
+     *  candidates found, best first, those with equal indices ordered by
+     *  rotor order and then setting. */
+    List<Candidate> search(ForkJoinPool pool, Progress progress) {
+        Best best = pool.invoke(new Search(0, _orders.size() * _fixed,
+                                           progress, new LongAdder()));
+        return best.candidates();
+    }
+
+    /** The best candidates seen by one task: a bounded heap whose root
+     *  is the worst of them.  A candidate is a rotor order (an index into
+     *  _orders), the settings of its rotors, and its score, the sum over
+     *  the characters of the alphabet of N * (N - 1), where N is the
+     *  number of times the character occurs in the decryption.  Candidates
+     *  are kept in slots of parallel arrays, and _heap orders the slots,
+     *  so that nothing is allocated as candidates are offered. */
+    private class Best {
+
+        /** Offer the candidate with rotor order ORDER, the settings of
+         *  rotor slot I being at POSN[I], and score SCORE. */
+        void offer(int order, int[] posn, long score) {
+            if (_count < _top) {
+                int slot = _count;
+                store(slot, order, posn, 1, score);
+                _heap[_count] = slot;
+                _count += 1;
+                siftUp(_count - 1);
+            } else if (better(score, order, posn, 1, _heap[0])) {
+                store(_heap[0], order, posn, 1, score);
+                siftDown(0);
+            }
+        }
+
+        /** Offer each candidate kept by OTHER. */
+        void merge(Best other) {
+            int[] posn = new int[_numRotors];
+            for (int k = 0; k < other._count; k++) {
+                int slot = other._heap[k];
+                System.arraycopy(other._posn, slot * _numRotors, posn, 0,
+                                 _numRotors);
+                offer(other._order[slot], posn, other._score[slot]);
+            }
+        }
+
+        /** Return my candidates, best first. */
+        List<Candidate> candidates() {
+            Integer[] slots = new Integer[_count];
+            for (int k = 0; k < _count; k++) {
+                slots[k] = _heap[k];
+            }
+            Arrays.sort(slots, (a, b) ->
+                        a.equals(b) ? 0 : better(a, b) ? -1 : 1);
+            double pairs = (double) _cipher.length * (_cipher.length - 1);
+            ArrayList<Candidate> result = new ArrayList<>();
+            char[] setting = new char[_numRotors - 1];
+            for (int slot : slots) {
+                for (int i = 1; i < _numRotors; i++) {
+                    setting[i - 1] =
+                        _alphabet.toChar(_posn[slot * _numRotors + i]);
+                }
+                result.add(new Candidate(_orders.get(_order[slot]),
+                                         new String(setting),
+                                         _score[slot] / pairs));
+            }
+            return result;
+        }
+
+        /** Store the candidate with rotor order ORDER, settings POSN[FROM
+         *  .. FROM+_numRotors-1], and score SCORE in SLOT. */
+        private void store(int slot, int order, int[] posn, int from,
+                           long score) {
+            _order[slot] = order;
+            _score[slot] = score;
+            System.arraycopy(posn, from, _posn, slot * _numRotors + 1,
+                             _numRotors - 1);
+        }
+
+        /** Return true iff the candidate in slot A is better than that in
+         *  slot B. */
+        private boolean better(int a, int b) {
+            return better(_score[a], _order[a], _posn, a * _numRotors + 1,
+                          b);
+        }
+
+        /** Return true iff the candidate with score SCORE, rotor order
+         *  ORDER and settings POSN[FROM .. FROM+_numRotors-2] is better
+         *  than that in SLOT: it has a higher score or, with the same
+         *  score, comes first by rotor order and then by settings. */
+        private boolean better(long score, int order, int[] posn, int from,
+                               int slot) {
+            if (score != _score[slot]) {
+                return score > _score[slot];
+            }
+            if (order != _order[slot]) {
+                return order < _order[slot];
+            }
+            for (int i = 1; i < _numRotors; i++, from++) {
+                int other = _posn[slot * _numRotors + i];
+                if (posn[from] != other) {
+                    return posn[from] < other;
+                }
+            }
+            return false;
+        }
+
+        /** Restore the heap order of _heap[0 .. K] given that of _heap[0
+         *  .. K-1]. */
+        private void siftUp(int k) {
+            while (k > 0) {
+                int parent = (k - 1) / 2;
+                if (!better(_heap[parent], _heap[k])) {
+                    return;
+                }
+                swap(k, parent);
+                k = parent;
+            }
+        }
+
+        /** Restore the heap order of _heap given that it holds except,
+         *  perhaps, at K. */
+        private void siftDown(int k) {
+            while (true) {
+                int worst = k;
+                for (int child = 2 * k + 1; child <= 2 * k + 2
+                         && child < _count; child++) {
+                    if (better(_heap[worst], _heap[child])) {
+                        worst = child;
+                    }
+                }
+                if (worst == k) {
+                    return;
+                }
+                swap(k, worst);
+                k = worst;
+            }
+        }
+
+        /** Exchange _heap[I] and _heap[J]. */
+        private void swap(int i, int j) {
+            int t = _heap[i];
+            _heap[i] = _heap[j];
+            _heap[j] = t;
+        }
+
+        /** Number of candidates kept. */
+        private int _count;
+
+        /** The slots of the kept candidates in heap order, the worst
+         *  first. */
+        private final int[] _heap = new int[_top];
+
+        /** Rotor order of the candidate in each slot. */
+        private final int[] _order = new int[_top];
+
+        /** Score of the candidate in each slot. */
+        private final long[] _score = new long[_top];
+
+        /** Setting of rotor slot I of the candidate in slot K, at K *
+         *  _numRotors + I. */
+        private final int[] _posn = new int[_top * _numRotors];
+    }
+
+    /** Searches units LO .. HI-1 of the search space, unit U being rotor
+     *  order U / _fixed with the setting numbered U % _fixed of the rotors
+     *  that do not move, returning the best candidates among them. */
+    private class Search extends RecursiveTask<Best> {
+
+        /** A search of units LO .. HI-1 reporting to PROGRESS, counting
+         *  the start positions tried in DONE, which is shared by all the
+         *  tasks of one call to search. */
+        Search(int lo, int hi, Progress progress, LongAdder done) {
+            _lo = lo;
+            _hi = hi;
+            _progress = progress;
+            _done = done;
+        }
+
+        @Override
+        protected Best compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                Search right = new Search(mid, _hi, _progress, _done);
+                right.fork();
+                Best best =
+                    new Search(_lo, mid, _progress, _done).compute();
+                best.merge(right.join());
+                return best;
+            }
+            Best best = new Best();
+            int order = _lo / _fixed;
+            Machine mach = _machine.copy();
+            mach.insertRotors(_orders.get(order));
+            mach.setPlugboard(new Permutation("", _alphabet));
+            int[] counts = new int[_size];
+            new KeySweep(mach).sweep(_lo % _fixed, _cipher, 0,
+                                     _cipher.length, (posn, result, n) -> {
+                    long score = 0;
+                    for (int j = 0; j < n; j++) {
+                        score += 2 * counts[result[j]];
+                        counts[result[j]] += 1;
+                    }
+                    for (int j = 0; j < n; j++) {
+                        counts[result[j]] = 0;
+                    }
+                    best.offer(order, posn, score);
+                });
+            _done.add(_states);
+            if (_progress != null) {
+                _progress.report(_done.sum(), positions());
+            }
+            return best;
+        }
+
+        /** First unit. */
+        private final int _lo;
+
+        /** One past the last unit. */
+        private final int _hi;
+
+        /** Receives progress reports, or null. */
+        private final Progress _progress;
+
+        /** Number of start positions tried by this search. */
+        private final LongAdder _done;
+
+        /** Version of my serialized form. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Search for the settings of the ciphertext in the input, as
+     *  specified by ARGS: the name of a configuration file, and
+     *  optionally the name of the file holding the ciphertext, which
+     *  otherwise comes from the standard input.  The best candidates are
+     *  printed, best first, each as its index of coincidence followed by
+     *  a settings line.  Options --rotors="NAMES" limits the search to
+     *  one rotor order, --top=K sets the number of candidates printed
+     *  (default 10), --threads=N sets the number of threads, and
+     *  --progress reports progress on the standard error. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--rotors=(.+) --top=(\\d+) "
+                                + "--threads=(\\d+) --progress "
+                                + "--=(.*){1,2}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.CoincidenceSearch "
+                            + "[--rotors=NAMES] [--top=K] [--threads=N] "
+                            + "[--progress] CONFIG [INPUT]");
+            }
+            List<String> files = options.get("--");
+            Machine mach = Main.readMachine(files.get(0));
+            String ciphertext =
+                readText(files.size() > 1 ? files.get(1) : null);
+            int top = options.contains("--top")
+                ? options.getInt("--top") : DEFAULT_TOP;
+            CoincidenceSearch search =
+                new CoincidenceSearch(mach, ciphertext,
+                                      orders(mach, options), top);
+            for (Candidate candidate
+                     : search.search(pool(options), progress(options))) {
+                System.out.println(candidate);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Default number of candidates printed. */
+    private static final int DEFAULT_TOP = 10;
+
+    /** The machine whose rotors are searched. */
+    private final Machine _machine;
+
+    /** Alphabet of _machine. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** The rotor orders searched. */
+    private final List<String[]> _orders;
+
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+
+    /** Number of candidates kept. */
+    private final int _top;
+
+    /** Number of states of the moving rotors. */
+    private final int _states;
+
+    /** Number of settings of the rotors that do not move. */
+    private final int _fixed;
+
+}
@@ -0,0 +1,288 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.*;
+
+/** A compiled configuration: the alphabet, rotor slots, pawls, and every
+ *  rotor's spec with its wiring tables, in a binary file that is read by
+ *  memory-mapping it.  The snapshot of configuration file F is F.snap.  It
+ *  records the size and modification time of F when it was written, and
+ *  is used only while they are unchanged.
+ *
+ *  The file holds, in big-endian order: MAGIC, VERSION, the size and
+ *  modification time of F (longs), the alphabet (a count and the
+ *  characters), the numbers of rotor slots and pawls and of rotors, a
+ *  record for each rotor, an index of the rotors, and the offset of the
+ *  index (a long) at the very end.  A record holds a rotor's kind ('M',
+ *  'N' or 'R'), name and notches (each a count and characters), its
+ *  permutation as a table of indices, and a flag that is followed, if
+ *  set, by its shifted forward and backward wiring tables.  The index
+ *  holds the name of each rotor and the offset of its record, so that
+ *  a rotor is read only when it is used.
+ *  @author Abhiroop Mathur
+ */
+class ConfigSnapshot {
+
+    /** A snapshot holding ALPHABET, NUMROTORS rotor slots, PAWLS pawls
+     *  and ROTORS. */
+    private ConfigSnapshot(Alphabet alphabet, int numRotors, int pawls,
+                           RotorCatalog rotors) {
+        _alphabet = alphabet;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _rotors = rotors;
+    }
+
+    /** Return the name of the snapshot of the configuration file named
+     *  CONFIG. */
+    static String snapshotName(String config) {
+        return config + SUFFIX;
+    }
+
+    /** Return the snapshot of the configuration file named CONFIG, or
+     *  null if there is none or it is out of date or unreadable.  Only
+     *  the index of the rotors is read now; each rotor is built from its
+     *  record in the mapped file when a machine first asks for it. */
+    static ConfigSnapshot load(String config) {
+        Path source = Paths.get(config);
+        Path snapshot = Paths.get(snapshotName(config));
+        try (FileChannel channel =
+                 FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            ByteBuffer in =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION
+                || in.getLong() != Files.size(source)
+                || in.getLong() != Files.getLastModifiedTime(source)
+                       .toMillis()) {
+                return null;
+            }
+            Alphabet alphabet = new Alphabet(getString(in));
+            int numRotors = in.getInt();
+            int pawls = in.getInt();
+            int count = in.getInt();
+            ByteBuffer records = in.duplicate();
+            in.position((int) in.getLong(in.limit() - Long.BYTES));
+            RotorCatalog rotors = new RotorCatalog();
+            for (int k = 0; k < count; k++) {
+                String name = getString(in);
+                long offset = in.getLong();
+                if (offset < 0 || offset >= in.limit()) {
+                    return null;
+                }
+                rotors.add(name, () -> rotor(records, (int) offset,
+                                             alphabet));
+            }
+            return new ConfigSnapshot(alphabet, numRotors, pawls, rotors);
+        } catch (IOException | RuntimeException excp) {
+            return null;
+        }
+    }
+
+    /** Return the rotor of ALPHABET whose record is at OFFSET in
+     *  RECORDS, which is not changed. */
+    private static Rotor rotor(ByteBuffer records, int offset,
+                               Alphabet alphabet) {
+        int size = alphabet.size();
+        ByteBuffer in = records.duplicate();
+        String name = "?";
+        try {
+            in.position(offset);
+            char kind = (char) in.get();
+            name = getString(in);
+            String notches = getString(in);
+            Permutation perm = new Permutation(getInts(in, size), alphabet);
+            int[] forward = null;
+            int[] backward = null;
+            if (in.get() != 0) {
+                forward = getInts(in, size * size);
+                backward = getInts(in, size * size);
+            }
+            RotorSpec spec =
+                new RotorSpec(name, perm, notches, forward, backward);
+            switch (kind) {
+            case 'M':
+                return new MovingRotor(spec);
+            case 'N':
+                return new FixedRotor(spec);
+            default:
+                return new Reflector(spec);
+            }
+        } catch (RuntimeException excp) {
+            throw error("could not read rotor %s from snapshot", name);
+        }
+    }
+
+    /** Write the snapshot of the configuration file named CONFIG, which
+     *  describes ALPHABET, NUMROTORS rotor slots, PAWLS pawls, and
+     *  ROTORS, returning false if it could not be written.  Each rotor
+     *  is built in turn, if ROTORS has not built it already, and written
+     *  without being kept, so that ROTORS still builds only the rotors
+     *  machines ask for.  The snapshot is written to a temporary file of
+     *  its own, which then replaces any previous snapshot in a single
+     *  step, so that it is never seen partly written, even by processes
+     *  writing it at the same time. */
+    static boolean write(String config, Alphabet alphabet, int numRotors,
+                         int pawls, RotorCatalog rotors) {
+        Path source = Paths.get(config);
+        Path snapshot = Paths.get(snapshotName(config)).toAbsolutePath();
+        Path temp;
+        try {
+            temp = Files.createTempFile(snapshot.getParent(),
+                                        snapshot.getFileName().toString(),
+                                        ".tmp");
+        } catch (IOException | RuntimeException excp) {
+            return false;
+        }
+        try {
+            try (FileChannel channel =
+                     FileChannel.open(temp, StandardOpenOption.WRITE);
+                 DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(
+                         Channels.newOutputStream(channel)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(Files.size(source));
+                out.writeLong(Files.getLastModifiedTime(source).toMillis());
+                char[] chars = new char[alphabet.size()];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = alphabet.toChar(i);
+                }
+                putString(out, new String(chars));
+                out.writeInt(numRotors);
+                out.writeInt(pawls);
+                out.writeInt(rotors.size());
+                String[] names = new String[rotors.size()];
+                long[] offsets = new long[rotors.size()];
+                for (int k = 0; k < names.length; k++) {
+                    out.flush();
+                    offsets[k] = channel.position();
+                    Rotor rotor = rotors.visit(k);
+                    names[k] = rotor.name();
+                    putRotor(out, rotor, alphabet.size());
+                }
+                out.flush();
+                long index = channel.position();
+                for (int k = 0; k < names.length; k++) {
+                    putString(out, names[k]);
+                    out.writeLong(offsets[k]);
+                }
+                out.writeLong(index);
+            }
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException | RuntimeException excp) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException excp2) {
+                /* Leave the temporary file behind. */
+            }
+            return false;
+        }
+    }
+
+    /** Write the record of ROTOR, whose alphabet has SIZE characters, to
+     *  OUT. */
+    private static void putRotor(DataOutputStream out, Rotor rotor,
+                                 int size) throws IOException {
+        RotorSpec spec = rotor.spec();
+        out.writeByte(rotor.reflecting() ? 'R'
+                      : rotor.rotates() ? 'M' : 'N');
+        putString(out, spec.name());
+        putString(out, spec.notches());
+        for (int p = 0; p < size; p++) {
+            out.writeInt(spec.permutation().permute(p));
+        }
+        out.writeBoolean(spec.tabulated());
+        if (spec.tabulated()) {
+            for (int s = 0; s < size; s++) {
+                for (int p = 0; p < size; p++) {
+                    out.writeInt(spec.forward(s, p));
+                }
+            }
+            for (int s = 0; s < size; s++) {
+                for (int e = 0; e < size; e++) {
+                    out.writeInt(spec.backward(s, e));
+                }
+            }
+        }
+    }
+
+    /** Return the alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls. */
+    int pawls() {
+        return _pawls;
+    }
+
+    /** Return all the rotors. */
+    RotorCatalog rotors() {
+        return _rotors;
+    }
+
+    /** Write S to OUT as its length and characters. */
+    private static void putString(DataOutputStream out, String s)
+        throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    /** Return the string written by putString at the position of IN. */
+    private static String getString(ByteBuffer in) {
+        char[] chars = new char[in.getInt()];
+        in.asCharBuffer().get(chars);
+        in.position(in.position() + chars.length * Character.BYTES);
+        return new String(chars);
+    }
+
+    /** Return the N ints at the position of IN. */
+    private static int[] getInts(ByteBuffer in, int n) {
+        int[] result = new int[n];
+        in.asIntBuffer().get(result);
+        in.position(in.position() + n * Integer.BYTES);
+        return result;
+    }
+
+    /** Suffix of the name of a configuration file's snapshot. */
+    static final String SUFFIX = ".snap";
+
+    /** First int of a snapshot. */
+    private static final int MAGIC = 0x456e6967;
+
+    /** Version of the snapshot format. */
+    private static final int VERSION = 2;
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _pawls;
+
+    /** All the rotors. */
+    private final RotorCatalog _rotors;
+
+}
@@ -0,0 +1,89 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the ConfigSnapshot class.
+ *  @author Abhiroop Mathur
+ */
+public class ConfigSnapshotTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return the rotors of a small configuration. */
+    private static ArrayList<Rotor> rotors() {
+        ArrayList<Rotor> result = new ArrayList<>();
+        result.add(new Reflector("B",
+                                 new Permutation(NAVALA.get("B"), UPPER)));
+        result.add(new MovingRotor("I",
+                                   new Permutation(NAVALA.get("I"), UPPER),
+                                   "Q"));
+        return result;
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        File dir = Files.createTempDirectory("enigma").toFile();
+        File config = new File(dir, "test.conf");
+        File snapshot = new File(ConfigSnapshot.snapshotName(config
+                                                             .getPath()));
+        try {
+            Files.write(config.toPath(), "ABCDEFGHIJKLMNOPQRSTUVWXYZ 2 1\n"
+                        .getBytes());
+            Thread[] writers = new Thread[4];
+            boolean[] written = new boolean[writers.length];
+            for (int t = 0; t < writers.length; t++) {
+                int k = t;
+                writers[t] = new Thread(() -> {
+                    written[k] = true;
+                    for (int i = 0; i < 20; i++) {
+                        written[k] &=
+                            ConfigSnapshot.write(config.getPath(), UPPER, 2,
+                                                 1,
+                                                 new RotorCatalog(rotors()));
+                    }
+                });
+                writers[t].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            for (boolean ok : written) {
+                assertTrue(ok);
+            }
+            ConfigSnapshot loaded = ConfigSnapshot.load(config.getPath());
+            assertNotNull(loaded);
+            assertEquals(2, loaded.rotors().size());
+            assertEquals("I", loaded.rotors().get("I").name());
+            assertEquals("B", loaded.rotors().all().get(0).name());
+            String[] names = dir.list();
+            Arrays.sort(names);
+            assertArrayEquals(new String[] { "test.conf", "test.conf.snap" },
+                              names);
+        } finally {
+            snapshot.delete();
+            config.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testUnwritable() throws IOException {
+        String config = "/nonexistent-enigma-dir/test.conf";
+        assertFalse(ConfigSnapshot.write(config, UPPER, 2, 1,
+                                         new RotorCatalog(rotors())));
+        assertNull(ConfigSnapshot.load(config));
+    }
+
+}
@@ -10,4 +10,20 @@ class FixedRotor extends Rotor {
     FixedRotor(String name, Permutation perm) {
         super(name, perm);
     }
+
+    /** A non-moving rotor described by SPEC, initially at setting 0. */
+    FixedRotor(RotorSpec spec) {
+        this(spec, new int[1], 0);
+    }
+
+    /** A rotor described by SPEC whose setting is SETTINGS[SLOT]. */
+    protected FixedRotor(RotorSpec spec, int[] settings, int slot) {
+        super(spec, settings, slot);
+    }
+
+    @Override
+    FixedRotor bind(int[] settings, int slot) {
+        settings[slot] = setting();
+        return new FixedRotor(spec(), settings, slot);
+    }
 }
@@ -0,0 +1,173 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** Conversion of one message under every start position of a machine's
+ *  rotors, for searches over keys.  Trying each start position by
+ *  setting the rotors and converting afresh repeats the same work: the
+ *  rotors starting at position P+1 (the position one step after P) go
+ *  through the same positions as from P, one step later.  A sweep
+ *  instead tabulates the machine's whole conversion at each position of
+ *  its moving rotors once, in stepping order, and then slides the message
+ *  along the table, so each character of each candidate costs one table
+ *  read.  The table is built once for each setting of the rotors that do
+ *  not move.
+ *  @author Abhiroop Mathur
+ */
+class KeySweep {
+
+    /** Receives the conversion of the message at each start position. */
+    interface Scorer {
+        /** Accept the conversion RESULT[0 .. N-1] of the message with the
+         *  rotors starting at POSN, which holds the setting of each rotor
+         *  slot (that of slot 0, the reflector, being 0).  Neither array
+         *  may be changed or kept. */
+        void score(int[] posn, int[] result, int n);
+    }
+
+    /** A sweep over the start positions of the rotors of MACH, with the
+     *  plugboard of MACH.  MACH itself is not changed, now or by later
+     *  sweeps. */
+    KeySweep(Machine mach) {
+        _machine = mach.copy();
+        _machine.apply(mach.setting());
+        _steps = _machine.steps();
+        if (_steps == null) {
+            throw error("too many rotor positions to sweep");
+        }
+        _size = mach.alphabet().size();
+        _numRotors = mach.numRotors();
+        _first = StepTable.firstMoving(mach);
+        long fixed = 1;
+        for (int i = 1; i < _first; i++) {
+            fixed *= _size;
+        }
+        if (fixed * _steps.states() > Integer.MAX_VALUE) {
+            throw error("too many rotor positions to sweep");
+        }
+        _fixed = (int) fixed;
+    }
+
+    /** Return the number of start positions. */
+    long positions() {
+        return (long) _fixed * _steps.states();
+    }
+
+    /** Return the number of settings of the rotors that do not move. */
+    int fixedSettings() {
+        return _fixed;
+    }
+
+    /** Convert MSG[FROM .. TO-1], a message of alphabet indices, from
+     *  every start position of my rotors, passing each result to
+     *  SCORER. */
+    void sweep(int[] msg, int from, int to, Scorer scorer) {
+        for (int f = 0; f < _fixed; f++) {
+            sweep(f, msg, from, to, scorer);
+        }
+    }
+
+    /** Convert MSG[FROM .. TO-1] as for sweep(MSG, FROM, TO, SCORER),
+     *  but only from the start positions in which the rotors that do not
+     *  move have their settings numbered FIXED (0 <= FIXED <
+     *  fixedSettings()), the leftmost being most significant. */
+    void sweep(int fixed, int[] msg, int from, int to, Scorer scorer) {
+        int n = to - from;
+        int[] result = new int[n];
+        int[] posn = new int[_numRotors];
+        int states = _steps.states();
+        setFixed(fixed, posn);
+        KeystreamTable table = KeystreamTable.build(_machine, _steps,
+                                                    Long.MAX_VALUE,
+                                                    OFF_HEAP);
+        if (table == null) {
+            throw error("too many rotor positions to sweep");
+        }
+        int[] rows = rows(table);
+        for (int s = 0; s < states; s++) {
+            _steps.decode(s, posn);
+            slide(table, rows, s, msg, from, n, result);
+            scorer.score(posn, result, n);
+        }
+    }
+
+    /** Return the settings of rotor slots 1 .. numRotors-1 in POSN as a
+     *  string, as accepted by Machine.setRotors. */
+    String setting(int[] posn) {
+        char[] result = new char[_numRotors - 1];
+        for (int i = 1; i < _numRotors; i++) {
+            result[i - 1] = _machine.alphabet().toChar(posn[i]);
+        }
+        return new String(result);
+    }
+
+    /** Set the rotors of _machine that do not move, and the same slots
+     *  of POSN, to their settings numbered F in mixed radix, the leftmost
+     *  being most significant. */
+    private void setFixed(int f, int[] posn) {
+        for (int i = _first - 1; i > 0; i--) {
+            posn[i] = f % _size;
+            _machine.getRotor(i).set(posn[i]);
+            f /= _size;
+        }
+    }
+
+    /** Return the rows of TABLE for the states on cycles: the conversion
+     *  of C in the state at position K of _steps is at K * _size + C. */
+    private int[] rows(KeystreamTable table) {
+        int[] rows = new int[_steps.cyclic() * _size];
+        int j = 0;
+        for (int k = 0; k < _steps.cyclic(); k++) {
+            int s = _steps.ordered(k);
+            for (int c = 0; c < _size; c++, j++) {
+                rows[j] = table.convert(s, c);
+            }
+        }
+        return rows;
+    }
+
+    /** Store in RESULT[0 .. N-1] the conversion of MSG[FROM .. FROM+N-1]
+     *  with the moving rotors starting in state S, using TABLE until the
+     *  rotors reach a cycle and then ROWS (see rows). */
+    private void slide(KeystreamTable table, int[] rows, int s, int[] msg,
+                       int from, int n, int[] result) {
+        int j = 0;
+        for (; j < n && _steps.position(s) < 0; j++) {
+            s = _steps.next(s);
+            result[j] = table.convert(s, msg[from + j]);
+        }
+        if (j == n) {
+            return;
+        }
+        int start = _steps.cycleStart(s);
+        int end = _steps.cycleEnd(s);
+        int k = _steps.position(s);
+        for (; j < n; j++) {
+            k = k + 1 == end ? start : k + 1;
+            result[j] = rows[k * _size + msg[from + j]];
+        }
+    }
+
+    /** Size in bytes above which a keystream table is kept outside the
+     *  Java heap. */
+    private static final long OFF_HEAP = 1 << 24;
+
+    /** My private copy of the machine swept. */
+    private final Machine _machine;
+
+    /** Stepping of _machine's moving rotors. */
+    private final StepTable _steps;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Slot of the leftmost rotor that can move. */
+    private final int _first;
+
+    /** Number of settings of the rotors that do not move. */
+    private final int _fixed;
+
+}
@@ -0,0 +1,133 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+
+/** The complete keystream of a machine for one choice of rotors,
+ *  settings of the rotors that do not move, and plugboard.  The moving
+ *  rotors' settings are numbered as states in mixed radix, the leftmost
+ *  moving rotor being most significant.  For each state, the table holds
+ *  the conversion of every character with the rotors in that state, and
+ *  the state that follows it.
+ *  @author Abhiroop Mathur
+ */
+class KeystreamTable {
+
+    /** A table for an alphabet of SIZE characters whose moving rotors
+     *  step as given by STEPS.  It holds the conversions in TABLE, WIDTH
+     *  bytes per entry. */
+    private KeystreamTable(int size, StepTable steps, ByteBuffer table,
+                           int width) {
+        _size = size;
+        _steps = steps;
+        _next = steps.successors();
+        _table = table;
+        _width = width;
+    }
+
+    /** Return the number of bytes needed for the table of MACH, or -1
+     *  if it cannot be built at all. */
+    static long bytesFor(Machine mach) {
+        int size = mach.alphabet().size();
+        long states = StepTable.statesFor(mach);
+        long entries = states * size * (size <= BYTE_LIMIT ? 1 : 2);
+        if (states < 0 || entries > Integer.MAX_VALUE) {
+            return -1;
+        }
+        return entries;
+    }
+
+    /** Return the table for the current rotors, non-moving rotor settings
+     *  and plugboard of MACH, whose moving rotors step as given by STEPS,
+     *  or null if it would need more than MAXBYTES bytes.  A table of more
+     *  than OFFHEAP bytes is kept outside the Java heap. */
+    static KeystreamTable build(Machine mach, StepTable steps,
+                                long maxBytes, long offHeap) {
+        long bytes = bytesFor(mach);
+        if (bytes < 0 || bytes > maxBytes) {
+            return null;
+        }
+        int size = mach.alphabet().size();
+        int numRotors = mach.numRotors();
+        int states = steps.states();
+        int width = size <= BYTE_LIMIT ? 1 : 2;
+        ByteBuffer table =
+            bytes > offHeap ? ByteBuffer.allocateDirect((int) bytes)
+            : ByteBuffer.allocate((int) bytes);
+
+        Rotor[] rotors = new Rotor[numRotors];
+        int[] posn = new int[numRotors];
+        for (int i = 0; i < numRotors; i++) {
+            rotors[i] = mach.getRotor(i);
+            posn[i] = rotors[i].setting();
+        }
+        Permutation plugboard = mach.plugboard();
+        Permutation reflector = rotors[0].permutation();
+        for (int s = 0; s < states; s++) {
+            steps.decode(s, posn);
+            for (int c = 0; c < size; c++) {
+                int e = plugboard.permute(c);
+                for (int i = numRotors - 1; i > 0; i--) {
+                    e = rotors[i].forward(posn[i], e);
+                }
+                e = reflector.permute(e);
+                for (int i = 1; i < numRotors; i++) {
+                    e = rotors[i].backward(posn[i], e);
+                }
+                e = plugboard.permute(e);
+                if (width == 1) {
+                    table.put(s * size + c, (byte) e);
+                } else {
+                    table.putChar((s * size + c) * 2, (char) e);
+                }
+            }
+        }
+        return new KeystreamTable(size, steps, table, width);
+    }
+
+    /** Return the stepping of my moving rotors. */
+    StepTable steps() {
+        return _steps;
+    }
+
+    /** Return the number of bytes this table occupies, not counting its
+     *  StepTable. */
+    long bytes() {
+        return _table.capacity();
+    }
+
+    /** Return the state following state S. */
+    int next(int s) {
+        return _next[s];
+    }
+
+    /** Return the conversion of C (an index into the alphabet) with the
+     *  moving rotors in state S. */
+    int convert(int s, int c) {
+        if (_width == 1) {
+            return _table.get(s * _size + c) & BYTE_MASK;
+        }
+        return _table.getChar((s * _size + c) * 2);
+    }
+
+    /** Largest alphabet whose entries fit in one byte. */
+    private static final int BYTE_LIMIT = 256;
+
+    /** Mask giving the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Stepping of the moving rotors. */
+    private final StepTable _steps;
+
+    /** Successor of each state, shared with _steps. */
+    private final int[] _next;
+
+    /** Conversion of character C in state S, at entry S * _size + C. */
+    private final ByteBuffer _table;
+
+    /** Number of bytes per entry of _table. */
+    private final int _width;
+
+}
@@ -0,0 +1,164 @@
+package enigma;
+
+/** Converts many independent messages with the rotors of one machine,
+ *  each message starting from its own rotor settings and, optionally,
+ *  with its own plugboard.  The machine's wiring is compiled into flat
+ *  tables when the engine is made, so that later changes to the machine
+ *  do not affect the engine, and the machine itself is never moved.
+ *
+ *  This class converts the messages one at a time.  When the incubating
+ *  Vector API (module jdk.incubator.vector) is present at run time and
+ *  the VectorLanes engine has been compiled (see the "vector" target of
+ *  the Makefile), forMachine instead returns an engine that converts a
+ *  vector's worth of messages in lockstep, giving the same results.
+ *  @author Abhiroop Mathur
+ */
+class LaneEngine {
+
+    /** An engine converting with the rotors and plugboard now in MACH,
+     *  one message at a time.  A MACH with no plugboard yet converts as
+     *  with the identity plugboard. */
+    LaneEngine(Machine mach) {
+        _size = mach.alphabet().size();
+        _numRotors = mach.numRotors();
+        _first = StepTable.firstMoving(mach);
+        _forward = new int[_numRotors][];
+        _inverse = new int[_numRotors][];
+        _notches = new int[_numRotors][];
+        _rotates = new boolean[_numRotors];
+        for (int i = 0; i < _numRotors; i++) {
+            Rotor rotor = mach.getRotor(i);
+            _forward[i] = table(rotor.permutation(), false);
+            _inverse[i] = table(rotor.permutation(), true);
+            _notches[i] = new int[_size];
+            for (int p = 0; p < _size; p++) {
+                _notches[i][p] = rotor.notchAt(p) ? 1 : 0;
+            }
+            _rotates[i] = rotor.rotates();
+        }
+        _plugboard = table(mach.plugboard(), false);
+    }
+
+    /** Return an engine for the rotors and plugboard now in MACH: the
+     *  VectorLanes engine if it is available, and otherwise a
+     *  LaneEngine. */
+    static LaneEngine forMachine(Machine mach) {
+        try {
+            return (LaneEngine) Class.forName(VECTOR_ENGINE)
+                .getDeclaredConstructor(Machine.class).newInstance(mach);
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return new LaneEngine(mach);
+        }
+    }
+
+    /** Return true iff I convert several messages at once. */
+    boolean vectorized() {
+        return false;
+    }
+
+    /** Return the table of PERM, or of its inverse if INVERSE.  A null
+     *  PERM is the identity. */
+    private int[] table(Permutation perm, boolean inverse) {
+        int[] result = new int[_size];
+        for (int p = 0; p < _size; p++) {
+            if (perm == null) {
+                result[p] = p;
+            } else {
+                result[p] = inverse ? perm.invert(p) : perm.permute(p);
+            }
+        }
+        return result;
+    }
+
+    /** Convert COUNT messages, message K being the alphabet indices
+     *  MSGS[STARTS[K] .. STARTS[K+1]-1], storing the results at the same
+     *  positions of RESULT.  Message K starts with the rotor in slot I
+     *  (0 < I < numRotors) at setting SETTINGS[K * (numRotors - 1) + I -
+     *  1], and is converted as by a machine with my rotors that starts
+     *  there.  If PLUGBOARDS is null, all messages use my plugboard;
+     *  otherwise message K uses the plugboard mapping each index C to
+     *  PLUGBOARDS[K * size + C]. */
+    void convert(int[] msgs, int[] starts, int count, int[] settings,
+                 int[] plugboards, int[] result) {
+        int last = _numRotors - 1;
+        int[] posn = new int[_numRotors];
+        for (int k = 0; k < count; k++) {
+            System.arraycopy(settings, k * last, posn, 1, last);
+            int plug = plugboards == null ? 0 : k * _size;
+            int[] plugs = plugboards == null ? _plugboard : plugboards;
+            for (int j = starts[k]; j < starts[k + 1]; j++) {
+                step(posn);
+                int c = plugs[plug + msgs[j]];
+                for (int i = last; i > 0; i--) {
+                    c = shifted(_forward[i], posn[i], c);
+                }
+                c = _forward[0][c];
+                for (int i = 1; i <= last; i++) {
+                    c = shifted(_inverse[i], posn[i], c);
+                }
+                result[j] = plugs[plug + c];
+            }
+        }
+    }
+
+    /** Advance the settings POSN of my rotors as Machine.advanceRotors
+     *  would. */
+    private void step(int[] posn) {
+        int last = _numRotors - 1;
+        for (int i = _first; i < last; i++) {
+            if ((i > _first && _notches[i][posn[i]] != 0)
+                || _notches[i + 1][posn[i + 1]] != 0) {
+                posn[i] = advanced(i, posn[i]);
+            }
+        }
+        posn[last] = advanced(last, posn[last]);
+    }
+
+    /** Return the setting of the rotor in SLOT after advancing from
+     *  setting POSN. */
+    private int advanced(int slot, int posn) {
+        if (!_rotates[slot]) {
+            return posn;
+        }
+        return posn + 1 == _size ? 0 : posn + 1;
+    }
+
+    /** Return the conversion of C by the permutation TABLE of a rotor at
+     *  setting POSN. */
+    private int shifted(int[] table, int posn, int c) {
+        int p = c + posn;
+        int e = table[p >= _size ? p - _size : p] - posn;
+        return e < 0 ? e + _size : e;
+    }
+
+    /** Name of the class of the engine using the Vector API. */
+    private static final String VECTOR_ENGINE = "enigma.VectorLanes";
+
+    /** Size of my alphabet. */
+    protected final int _size;
+
+    /** Number of rotor slots. */
+    protected final int _numRotors;
+
+    /** Slot of the leftmost rotor that can move. */
+    protected final int _first;
+
+    /** _forward[I][P] is the permutation of the rotor in slot I at
+     *  setting 0 applied to P. */
+    protected final int[][] _forward;
+
+    /** _inverse[I][E] is the inverse permutation of the rotor in slot I
+     *  at setting 0 applied to E. */
+    protected final int[][] _inverse;
+
+    /** _notches[I][P] is 1 if the rotor in slot I has a notch at setting
+     *  P, and otherwise 0. */
+    protected final int[][] _notches;
+
+    /** _rotates[I] is true iff the rotor in slot I can rotate. */
+    protected final boolean[] _rotates;
+
+    /** The plugboard's permutation of each index. */
+    protected final int[] _plugboard;
+
+}
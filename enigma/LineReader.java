@@ -0,0 +1,266 @@
+package enigma;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.Charset;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.*;
+
+/** A source of lines read through a FileChannel.  Regular files are
+ *  memory-mapped; other sources, such as the standard input, are read
+ *  into a large direct buffer.  Each line is delivered in a reusable
+ *  character buffer rather than as a new String.  Lines end at "\n",
+ *  "\r\n", or "\r", as for Scanner.nextLine.
+ *  @author Abhiroop Mathur
+ */
+class LineReader {
+
+    /** A reader of the lines of CHANNEL, which is memory-mapped if
+     *  MAPPED. */
+    LineReader(FileChannel channel, boolean mapped) {
+        _channel = channel;
+        _mapped = mapped;
+        _decoder = Charset.defaultCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        if (mapped) {
+            _buffer = ByteBuffer.allocate(0);
+        } else {
+            _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            _buffer.limit(0);
+        }
+    }
+
+    /** Return a reader of the file named NAME, which is memory-mapped
+     *  only if it is a regular file: pipes and devices, such as
+     *  /dev/stdin, are read like the standard input. */
+    static LineReader open(String name) {
+        try {
+            Path path = Paths.get(name);
+            FileChannel channel =
+                FileChannel.open(path, StandardOpenOption.READ);
+            return new LineReader(channel, Files.isRegularFile(path));
+        } catch (IOException | RuntimeException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a reader of the standard input. */
+    static LineReader stdin() {
+        return new LineReader(new FileInputStream(FileDescriptor.in)
+                              .getChannel(), false);
+    }
+
+    /** Return true iff there is another line, even an empty one. */
+    boolean hasNextLine() {
+        return _buffer.hasRemaining() || fill();
+    }
+
+    /** Return true iff there is a non-whitespace character left. */
+    boolean hasNext() {
+        int i = _buffer.position();
+        while (true) {
+            if (i == _buffer.limit()) {
+                int offset = i - _buffer.position();
+                if (!fill()) {
+                    return false;
+                }
+                i = _buffer.position() + offset;
+                continue;
+            }
+            byte b = _buffer.get(i);
+            if (b < 0 || !Character.isWhitespace(b)) {
+                return true;
+            }
+            i += 1;
+        }
+    }
+
+    /** Read the next line, which must exist, into chars() and
+     *  length(). */
+    void nextLine() {
+        if (!hasNextLine()) {
+            throw error("unexpected end of input");
+        }
+        int i = _buffer.position();
+        boolean ascii = true;
+        while (true) {
+            if (i == _buffer.limit()) {
+                int offset = i - _buffer.position();
+                boolean more = fill();
+                i = _buffer.position() + offset;
+                if (!more) {
+                    break;
+                }
+                continue;
+            }
+            byte b = _buffer.get(i);
+            if (b == '\n' || b == '\r') {
+                break;
+            }
+            ascii &= b >= 0;
+            i += 1;
+        }
+        int start = _buffer.position();
+        decode(start, i - start, ascii);
+        if (i < _buffer.limit() && _buffer.get(i) == '\r') {
+            i += 1;
+            if (i == _buffer.limit()) {
+                _buffer.position(i);
+                fill();
+                i = _buffer.position();
+            }
+            if (i < _buffer.limit() && _buffer.get(i) == '\n') {
+                i += 1;
+            }
+        } else if (i < _buffer.limit()) {
+            i += 1;
+        }
+        _buffer.position(i);
+    }
+
+    /** Return the characters of the current line, which are
+     *  chars()[0 .. length()-1].  The array is reused by nextLine. */
+    char[] chars() {
+        return _chars;
+    }
+
+    /** Return the length of the current line. */
+    int length() {
+        return _length;
+    }
+
+    /** Return the current line as a String. */
+    String line() {
+        return new String(_chars, 0, _length);
+    }
+
+    /** Return the offset in the file of the next unread byte. */
+    long offset() {
+        return _base + _buffer.position();
+    }
+
+    /** Close my channel. */
+    void close() {
+        try {
+            _channel.close();
+        } catch (IOException excp) {
+            throw error("could not close input: %s", excp.getMessage());
+        }
+    }
+
+    /** Decode the N bytes at START of _buffer into _chars, all of which
+     *  are ASCII if ASCII. */
+    private void decode(int start, int n, boolean ascii) {
+        if (_chars.length < n) {
+            _chars = new char[Math.max(n, _chars.length * 2)];
+        }
+        if (ascii) {
+            for (int k = 0; k < n; k++) {
+                _chars[k] = (char) _buffer.get(start + k);
+            }
+            _length = n;
+            return;
+        }
+        ByteBuffer bytes = _buffer.duplicate();
+        bytes.limit(start + n).position(start);
+        CharBuffer chars = CharBuffer.wrap(_chars);
+        _decoder.reset();
+        _decoder.decode(bytes, chars, true);
+        _decoder.flush(chars);
+        _length = chars.position();
+    }
+
+    /** Make more input available after the unread bytes of _buffer,
+     *  which are kept, though they may move even when there is no more
+     *  input.  Returns false iff there is no more input. */
+    private boolean fill() {
+        try {
+            if (_mapped) {
+                long start = _base + _buffer.position();
+                long size = _channel.size();
+                long mapped = _base + _buffer.limit();
+                if (mapped >= size) {
+                    return false;
+                }
+                long length = Math.min(size - start,
+                    Math.max(MAP_WINDOW, 2L * (mapped - start)));
+                if (length > Integer.MAX_VALUE) {
+                    throw error("input line too long");
+                }
+                _buffer = _channel.map(FileChannel.MapMode.READ_ONLY,
+                                       start, length);
+                _base = start;
+                return true;
+            }
+            if (_eof) {
+                return false;
+            }
+            _base += _buffer.position();
+            _buffer.compact();
+            if (!_buffer.hasRemaining()) {
+                ByteBuffer larger =
+                    ByteBuffer.allocateDirect(_buffer.capacity() * 2);
+                _buffer.flip();
+                larger.put(_buffer);
+                _buffer = larger;
+            }
+            int before = _buffer.position();
+            while (_buffer.position() == before) {
+                if (_channel.read(_buffer) < 0) {
+                    _eof = true;
+                    break;
+                }
+            }
+            _buffer.flip();
+            return _buffer.limit() > before;
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /** Size of the buffer used for sources that are not mapped. */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** Number of bytes of a file mapped at once. */
+    private static final long MAP_WINDOW = 1L << 30;
+
+    /** My source. */
+    private final FileChannel _channel;
+
+    /** True iff _channel is memory-mapped. */
+    private final boolean _mapped;
+
+    /** Decoder for lines that are not all ASCII. */
+    private final CharsetDecoder _decoder;
+
+    /** The bytes of _channel starting at offset _base.  Its position is
+     *  the first unread byte and its limit the end of the bytes read or
+     *  mapped so far. */
+    private ByteBuffer _buffer;
+
+    /** Offset in _channel of the start of _buffer. */
+    private long _base;
+
+    /** True iff a read of an unmapped _channel has reached its end. */
+    private boolean _eof;
+
+    /** Characters of the current line. */
+    private char[] _chars = new char[1 << 8];
+
+    /** Length of the current line. */
+    private int _length;
+
+}
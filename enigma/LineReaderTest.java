@@ -0,0 +1,93 @@
+package enigma;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/** The suite of all JUnit tests for the LineReader class.
+ *  @author Abhiroop Mathur
+ */
+public class LineReaderTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Lines, with every kind of line ending, read by each test. */
+    private static final String TEXT =
+        "* B Beta III IV I AXLE (HQ) (EX)\nHELLO WORLD\r\n\r"
+        + " SPACED \nLAST";
+
+    /** The lines of TEXT. */
+    private static final String[] LINES = {
+        "* B Beta III IV I AXLE (HQ) (EX)", "HELLO WORLD", "", " SPACED ",
+        "LAST"
+    };
+
+    /** Return the lines of IN, closing it. */
+    private static List<String> lines(LineReader in) {
+        ArrayList<String> result = new ArrayList<>();
+        while (in.hasNextLine()) {
+            in.nextLine();
+            result.add(in.line());
+        }
+        in.close();
+        return result;
+    }
+
+    @Test
+    public void testRegularFile() throws IOException {
+        File file = File.createTempFile("enigma", ".in");
+        try {
+            Files.write(file.toPath(),
+                        TEXT.getBytes(StandardCharsets.UTF_8));
+            assertArrayEquals(LINES,
+                              lines(LineReader.open(file.getPath()))
+                              .toArray());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFifo() throws Exception {
+        File dir = Files.createTempDirectory("enigma").toFile();
+        File fifo = new File(dir, "fifo");
+        try {
+            Process mkfifo;
+            try {
+                mkfifo = new ProcessBuilder("mkfifo", fifo.getPath())
+                    .start();
+            } catch (IOException excp) {
+                mkfifo = null;
+            }
+            assumeTrue(mkfifo != null && mkfifo.waitFor() == 0);
+            Thread writer = new Thread(() -> {
+                try (OutputStream out = new FileOutputStream(fifo)) {
+                    out.write(TEXT.getBytes(StandardCharsets.UTF_8));
+                } catch (IOException excp) {
+                    throw new RuntimeException(excp);
+                }
+            });
+            writer.start();
+            assertArrayEquals(LINES,
+                              lines(LineReader.open(fifo.getPath()))
+                              .toArray());
+            writer.join();
+        } finally {
+            fifo.delete();
+            dir.delete();
+        }
+    }
+
+}
@@ -2,8 +2,24 @@ package enigma;
 
 import java.util.ArrayList;
 
+import java.util.Arrays;
+
 import java.util.Collection;
 
+import java.util.Iterator;
+
+import java.util.LinkedHashMap;
+
+import java.util.List;
+
+import java.util.concurrent.ForkJoinPool;
+
+import java.util.concurrent.RecursiveAction;
+
+import java.util.function.IntConsumer;
+
+import static enigma.EnigmaException.*;
+
 /** Class that represents a complete enigma machine.
  *  @author Abhiroop Mathur
  */
@@ -14,11 +30,51 @@ class Machine {
      *  available rotors. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
+        this(alpha, numRotors, pawls, allRotors, Tracer.NONE);
+    }
+
+    /** A new Enigma machine as for Machine(ALPHA, NUMROTORS, PAWLS,
+     *  ALLROTORS) whose conversions are reported to TRACER. */
+    Machine(Alphabet alpha, int numRotors, int pawls,
+            Collection<Rotor> allRotors, Tracer tracer) {
+        this(alpha, numRotors, pawls, new RotorCatalog(allRotors), tracer);
+    }
+
+    /** A new Enigma machine as for Machine(ALPHA, NUMROTORS, PAWLS,
+     *  ALLROTORS, TRACER) whose available rotors are those in CATALOG. */
+    Machine(Alphabet alpha, int numRotors, int pawls,
+            RotorCatalog catalog, Tracer tracer) {
+        _tracer = tracer;
+        _traced = tracer != Tracer.NONE;
         _alphabet = alpha;
+        _settingBits = Math.max(1,
+            Integer.SIZE - Integer.numberOfLeadingZeros(alpha.size() - 1));
+        _settingMask = (1 << _settingBits) - 1;
         _numRotors = numRotors;
         _pawls = pawls;
-        _allRotors = allRotors.toArray();
+        _catalog = catalog;
         _theseRotors = new ArrayList<>();
+        _composite = new int[alpha.size()];
+        _compositeStamp = new int[alpha.size()];
+        _compositeGeneration = 1;
+        _useComposite = true;
+    }
+
+    /** Return a new machine with my alphabet, rotor slots, pawls and
+     *  available rotors, so that it can be set up and used independently
+     *  of me.  The rotors' specs are shared, not copied. */
+    Machine copy() {
+        return copy(_tracer);
+    }
+
+    /** Return a new machine as for copy(), but whose conversions are
+     *  reported to TRACER. */
+    Machine copy(Tracer tracer) {
+        Machine result =
+            new Machine(_alphabet, _numRotors, _pawls, _catalog, tracer);
+        result.setCompositeCache(_useComposite);
+        result.setKeystreamLimit(_keystreamLimit, _keystreamOffHeap);
+        return result;
     }
 
     /** Return the number of rotor slots I have. */
@@ -31,6 +87,11 @@ class Machine {
         return _pawls;
     }
 
+    /** Return all my available rotors. */
+    List<Rotor> availableRotors() {
+        return _catalog.all();
+    }
+
     /** Return Rotor #K, where Rotor #0 is the reflector, and Rotor
      *  #(numRotors()-1) is the fast Rotor.  Modifying this Rotor has
      *  undefined results. */
@@ -47,19 +108,36 @@ class Machine {
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
-        _theseRotors.clear();
+        ArrayList<Rotor> chosen = new ArrayList<>();
         for (String i: rotors) {
-            for (Object j: _allRotors) {
-                if (((Rotor) j).name().equals(i)) {
-                    _theseRotors.add((Rotor) j);
-                }
-
+            Rotor rotor = _catalog.get(i);
+            if (rotor == null) {
+                throw new EnigmaException("Rotors not found or misnamed!");
             }
+            chosen.add(rotor);
+        }
+        insert(chosen);
+    }
 
+    /** Set my rotor slots to CHOSEN, as for insertRotors. */
+    private void insert(List<Rotor> chosen) {
+        _settings = new int[chosen.size()];
+        _theseRotors.clear();
+        long rotorsHash = 0;
+        for (Rotor rotor : chosen) {
+            _theseRotors.add(rotor.bind(_settings, _theseRotors.size()));
+            rotorsHash = rotorsHash * HASH_MULTIPLIER
+                + rotor.spec().hashCode();
         }
-        if (_theseRotors.size() != rotors.length) {
-            throw new EnigmaException("Rotors not found or misnamed!");
+        _rotorsHash = rotorsHash;
+        _fixedBits = 0;
+        for (int i = 1; i < StepTable.firstMoving(this); i++) {
+            int shift = _settingBits * (_settings.length - 1 - i);
+            _fixedBits |= shift < Long.SIZE ? _settingMask << shift : 0;
         }
+        invalidateComposite();
+        _keystreamKnown = false;
+        _steps = null;
     }
 
     /** Set my rotors according to SETTING, which must be a string of
@@ -75,8 +153,97 @@ class Machine {
             _theseRotors.get(i).set(setting.charAt(j));
             j++;
         }
+        invalidateComposite();
+        _keystreamKnown = false;
+
+    }
+
+    /** Return the settings of my rotors packed into a long, which
+     *  restore() accepts.  The settings must fit: numRotors() - 1 times
+     *  the number of bits in the largest setting must be at most 64. */
+    long snapshot() {
+        if ((_settings.length - 1) * _settingBits > Long.SIZE) {
+            throw error("rotor settings do not fit in a snapshot");
+        }
+        long state = 0;
+        for (int i = 1; i < _settings.length; i++) {
+            state = (state << _settingBits) | _settings[i];
+        }
+        return state;
+    }
 
+    /** Set my rotors to the settings in STATE, a value of snapshot() for
+     *  my current rotors. */
+    void restore(long state) {
+        long changed = state ^ snapshot();
+        for (int i = _settings.length - 1; i > 0; i--) {
+            _settings[i] = (int) (state & _settingMask);
+            state >>>= _settingBits;
+        }
+        invalidateComposite();
+        if ((changed & _fixedBits) != 0) {
+            _keystreamKnown = false;
+        }
+    }
+
+    /** Return a hash of my rotors and their settings.  Machines whose
+     *  rotors share specs and are in the same settings have the same
+     *  hash. */
+    long stateHash() {
+        long h = _rotorsHash;
+        for (int i = 1; i < _settings.length; i++) {
+            h = h * HASH_MULTIPLIER + _settings[i];
+        }
+        h = (h ^ (h >>> 33)) * HASH_MIX1;
+        h = (h ^ (h >>> 29)) * HASH_MIX2;
+        return h ^ (h >>> 32);
+    }
 
+    /** Return my rotors, their settings, and my plugboard. */
+    Setting setting() {
+        return new Setting(_theseRotors.toArray(new Rotor[0]),
+                           _settings.clone(), _plugboard);
+    }
+
+    /** Set my rotors, their settings and my plugboard to those of
+     *  SETTING.  If my rotors already have the specs of those of SETTING,
+     *  this only copies the settings. */
+    void apply(Setting setting) {
+        Rotor[] rotors = setting._rotors;
+        boolean same = rotors.length == _theseRotors.size();
+        for (int i = 0; same && i < rotors.length; i++) {
+            same = rotors[i].spec() == _theseRotors.get(i).spec();
+        }
+        if (!same) {
+            insert(Arrays.asList(rotors));
+        }
+        System.arraycopy(setting._settings, 0, _settings, 0,
+                         _settings.length);
+        _plugboard = setting._plugboard;
+        invalidateComposite();
+        _keystreamKnown = false;
+    }
+
+    /** The rotors, rotor settings, and plugboard of a machine, which
+     *  can be applied to any machine with the same rotors available. */
+    static final class Setting {
+
+        /** A setting of ROTORS at SETTINGS with PLUGBOARD. */
+        private Setting(Rotor[] rotors, int[] settings,
+                        Permutation plugboard) {
+            _rotors = rotors;
+            _settings = settings;
+            _plugboard = plugboard;
+        }
+
+        /** The rotors, reflector first. */
+        private final Rotor[] _rotors;
+
+        /** The setting of each rotor. */
+        private final int[] _settings;
+
+        /** The plugboard. */
+        private final Permutation _plugboard;
     }
 
     /** Return the current plugboard's permutation. */
@@ -87,6 +254,7 @@ class Machine {
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
         _plugboard = plugboard;
+        _keystreamKnown = false;
     }
 
     /** Returns the result of converting the input character C (as an
@@ -94,50 +262,126 @@ class Machine {
      *  the machine. */
     int convert(int c) {
         advanceRotors();
-        if (Main.verbose()) {
-            System.err.printf("[");
-            for (int r = 1; r < numRotors(); r += 1) {
-                System.err.printf("%c",
-                        alphabet().toChar(getRotor(r).setting()));
-            }
-            System.err.printf("] %c -> ", alphabet().toChar(c));
+        if (_traced) {
+            return traced(c);
         }
         c = plugboard().permute(c);
-        if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(c));
-        }
         c = applyRotors(c);
+        return plugboard().permute(c);
+    }
+
+    /** Return the conversion of C, as for convert(C) once the rotors have
+     *  advanced, reporting each stage to my tracer. */
+    private int traced(int c) {
+        _tracer.start(this, c);
         c = plugboard().permute(c);
-        if (Main.verbose()) {
-            System.err.printf("%c%n", alphabet().toChar(c));
+        _tracer.stage(c);
+        for (int i = _theseRotors.size() - 1; i > 0; i--) {
+            c = _theseRotors.get(i).convertForward(c);
+            _tracer.stage(c);
         }
+        c = _theseRotors.get(0).permutation().permute(c);
+        for (int i = 1; i < _theseRotors.size(); i++) {
+            c = _theseRotors.get(i).convertBackward(c);
+            _tracer.stage(c);
+        }
+        c = plugboard().permute(c);
+        _tracer.end(c);
         return c;
     }
 
     /** Advance all rotors to their next position. */
     public void advanceRotors() {
+        boolean moved = false;
         for (int i = numRotors() - numPawls();
              i < _theseRotors.size() - 1; i++) {
             if (i > numRotors() - numPawls()) {
                 if (_theseRotors.get(i).atNotch()) {
                     _theseRotors.get(i).advance();
+                    moved = true;
                 } else {
                     if (_theseRotors.get(i + 1).atNotch()) {
                         _theseRotors.get(i).advance();
+                        moved = true;
                     }
                 }
             } else {
                 if (_theseRotors.get(i + 1).atNotch()) {
                     _theseRotors.get(i).advance();
+                    moved = true;
                 }
             }
         }
         _theseRotors.get(_theseRotors.size() - 1).advance();
+        if (moved) {
+            invalidateComposite();
+        }
+    }
+
+    /** Advance all rotors N positions, as if by calling advanceRotors()
+     *  N times.  Unless my moving rotors have too many settings, this
+     *  takes time independent of N. */
+    void advanceRotors(long n) {
+        StepTable steps = steps();
+        if (steps == null) {
+            for (long i = 0; i < n; i++) {
+                advanceRotors();
+            }
+            return;
+        }
+        if (n > 0) {
+            steps.setRotors(this, steps.jump(steps.state(this), n));
+            invalidateComposite();
+        }
+    }
+
+    /** Return the stepping of my moving rotors, or null if they have too
+     *  many settings to tabulate. */
+    StepTable steps() {
+        if (_steps == null) {
+            long states = StepTable.statesFor(this);
+            if (states < 0 || states > StepTable.MAX_STATES) {
+                return null;
+            }
+            _steps = new StepTable(this);
+        }
+        return _steps;
+    }
+
+    /** Set POSN, which holds a setting for each of my rotor slots, to the
+     *  settings that advanceRotors() would give my rotors if they started
+     *  at POSN.  The rotors themselves are unchanged. */
+    void step(int[] posn) {
+        int first = numRotors() - numPawls();
+        int last = _theseRotors.size() - 1;
+        for (int i = first; i < last; i++) {
+            Rotor rotor = _theseRotors.get(i);
+            if ((i > first && rotor.notchAt(posn[i]))
+                || _theseRotors.get(i + 1).notchAt(posn[i + 1])) {
+                posn[i] = advanced(rotor, posn[i]);
+            }
+        }
+        posn[last] = advanced(_theseRotors.get(last), posn[last]);
+    }
+
+    /** Return the setting ROTOR would have after advancing from
+     *  setting POSN. */
+    private int advanced(Rotor rotor, int posn) {
+        if (!rotor.rotates()) {
+            return posn;
+        }
+        return posn + 1 == rotor.size() ? 0 : posn + 1;
     }
 
     /** Return the result of applying the rotors to the character C (as an
      *  index in the range 0..alphabet size - 1). */
     private int applyRotors(int c) {
+        if (_useComposite) {
+            Rotor fast = _theseRotors.get(_theseRotors.size() - 1);
+            c = fast.convertForward(c);
+            c = composite(c);
+            return fast.convertBackward(c);
+        }
         for (int i = _theseRotors.size() - 1; i > 0; i--) {
             c = _theseRotors.get(i).convertForward(c);
         }
@@ -149,13 +393,414 @@ class Machine {
         return c;
     }
 
+    /** Return the result of passing C (as an index in the range
+     *  0..alphabet size - 1) from the fast rotor through all the other
+     *  rotors, the reflector, and back, using the cached composite
+     *  of those rotors when it is current. */
+    private int composite(int c) {
+        if (_compositeStamp[c] != _compositeGeneration) {
+            int last = _theseRotors.size() - 1;
+            int e = c;
+            for (int i = last - 1; i > 0; i--) {
+                e = _theseRotors.get(i).convertForward(e);
+            }
+            e = _theseRotors.get(0).permutation().permute(e);
+            for (int i = 1; i < last; i++) {
+                e = _theseRotors.get(i).convertBackward(e);
+            }
+            _composite[c] = e;
+            _compositeStamp[c] = _compositeGeneration;
+            _compositeFills += 1;
+        }
+        return _composite[c];
+    }
+
+    /** Discard the cached composite of the rotors other than the fast
+     *  rotor, after one of them has moved. */
+    private void invalidateComposite() {
+        _compositeGeneration += 1;
+        if (_compositeGeneration == 0) {
+            Arrays.fill(_compositeStamp, 0);
+            _compositeGeneration = 1;
+        }
+        _compositeRebuilds += 1;
+    }
+
+    /** Turn the cached composite of the slow rotors and reflector on if
+     *  ON, and off otherwise.  It is on initially. */
+    void setCompositeCache(boolean on) {
+        _useComposite = on;
+    }
+
+    /** Return true iff the cached composite is turned on. */
+    boolean compositeCache() {
+        return _useComposite;
+    }
+
+    /** Return the number of times the cached composite has been
+     *  discarded because a rotor other than the fast rotor moved or the
+     *  rotors were changed. */
+    long compositeRebuilds() {
+        return _compositeRebuilds;
+    }
+
+    /** Return the number of composite entries computed by passing through
+     *  the slow rotors, rather than read from the cache. */
+    long compositeFills() {
+        return _compositeFills;
+    }
+
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        msg = msg.replace(" ", "");
-        String result = "";
-        for (int i = 0; i < msg.length(); i++) {
-            result += _alphabet.toChar(convert(_alphabet.toInt(msg.charAt(i))));
+        char[] result = new char[msg.length()];
+        int n = convert(msg, 0, msg.length(), result, 0);
+        return new String(result, 0, n);
+    }
+
+    /** Encode or decode the characters MSG[FROM .. TO-1], skipping blanks,
+     *  into RESULT[POS ..], updating the state of the rotors accordingly.
+     *  Returns the number of characters stored in RESULT. */
+    int convert(CharSequence msg, int from, int to, char[] result, int pos) {
+        KeystreamTable table = keystream();
+        int state = table == null ? 0 : table.steps().state(this);
+        int k = pos;
+        for (int i = from; i < to; i++) {
+            char ch = msg.charAt(i);
+            if (ch != ' ') {
+                int c = index(ch);
+                if (table == null) {
+                    c = convert(c);
+                } else {
+                    state = table.next(state);
+                    c = table.convert(state, c);
+                }
+                result[k] = _alphabet.toChar(c);
+                k++;
+            }
+        }
+        if (table != null) {
+            setState(table, state);
+        }
+        return k - pos;
+    }
+
+    /** Encode or decode the characters MSG[FROM .. TO-1], skipping blanks,
+     *  into RESULT[POS ..], updating the state of the rotors accordingly.
+     *  MSG and RESULT may be the same array.  Returns the number of
+     *  characters stored in RESULT. */
+    int convert(char[] msg, int from, int to, char[] result, int pos) {
+        KeystreamTable table = keystream();
+        int state = table == null ? 0 : table.steps().state(this);
+        int k = pos;
+        for (int i = from; i < to; i++) {
+            char ch = msg[i];
+            if (ch != ' ') {
+                int c = index(ch);
+                if (table == null) {
+                    c = convert(c);
+                } else {
+                    state = table.next(state);
+                    c = table.convert(state, c);
+                }
+                result[k] = _alphabet.toChar(c);
+                k++;
+            }
+        }
+        if (table != null) {
+            setState(table, state);
+        }
+        return k - pos;
+    }
+
+    /** Encode or decode the characters LINE[FROM .. TO-1], skipping
+     *  blanks, into RESULT[POS ..] in groups of GROUP characters separated
+     *  by blanks, updating the state of the rotors accordingly.  Each
+     *  character is checked, converted and stored in a single pass,
+     *  except that a traced machine checks the whole line first, so that
+     *  a rejected line is not traced.  RESULT must have room for (TO -
+     *  FROM) * (GROUP + 1) / GROUP characters.  Returns the number of
+     *  characters stored in RESULT or, if LINE contains a character other
+     *  than a blank that is not in my alphabet, -1, leaving my rotors as
+     *  they were. */
+    int convertLine(char[] line, int from, int to, char[] result, int pos,
+                    int group) {
+        if (_traced) {
+            for (int i = from; i < to; i++) {
+                if (line[i] != ' ' && !_alphabet.contains(line[i])) {
+                    return -1;
+                }
+            }
+        }
+        KeystreamTable table = keystream();
+        int state;
+        if (table == null) {
+            state = 0;
+            if (_saved.length < _settings.length) {
+                _saved = new int[_settings.length];
+            }
+            System.arraycopy(_settings, 0, _saved, 0, _settings.length);
+        } else {
+            state = table.steps().state(this);
+        }
+        int k = pos;
+        int inGroup = 0;
+        for (int i = from; i < to; i++) {
+            char ch = line[i];
+            if (ch == ' ') {
+                continue;
+            }
+            int c = _alphabet.toInt(ch);
+            if (c < 0) {
+                if (table == null) {
+                    System.arraycopy(_saved, 0, _settings, 0,
+                                     _settings.length);
+                    invalidateComposite();
+                }
+                return -1;
+            }
+            if (table == null) {
+                c = convert(c);
+            } else {
+                state = table.next(state);
+                c = table.convert(state, c);
+            }
+            if (inGroup == group) {
+                result[k] = ' ';
+                k++;
+                inGroup = 0;
+            }
+            result[k] = _alphabet.toChar(c);
+            k++;
+            inGroup++;
+        }
+        if (table != null) {
+            setState(table, state);
+        }
+        return k - pos;
+    }
+
+    /** Encode or decode the alphabet indices MSG[FROM .. TO-1] into
+     *  RESULT[POS .. POS+TO-FROM-1], updating the state of the rotors
+     *  accordingly.  MSG and RESULT may be the same array. */
+    void convert(int[] msg, int from, int to, int[] result, int pos) {
+        KeystreamTable table = keystream();
+        if (table == null) {
+            for (int i = from; i < to; i++) {
+                result[pos + i - from] = convert(msg[i]);
+            }
+            return;
+        }
+        int state = table.steps().state(this);
+        for (int i = from; i < to; i++) {
+            state = table.next(state);
+            result[pos + i - from] = table.convert(state, msg[i]);
+        }
+        setState(table, state);
+    }
+
+    /** Encode or decode the characters MSG[FROM .. TO-1], skipping blanks,
+     *  into RESULT[POS ..], updating the state of the rotors accordingly,
+     *  exactly as convert(MSG, FROM, TO, RESULT, POS) would, but splitting
+     *  long messages into chunks converted in parallel by POOL.  MSG and
+     *  RESULT may be the same array only if MSG has no blanks.  Returns
+     *  the number of characters stored in RESULT. */
+    int convert(char[] msg, int from, int to, char[] result, int pos,
+                ForkJoinPool pool) {
+        StepTable steps = steps();
+        if (pool == null || steps == null || to - from < PARALLEL_MIN
+            || _traced) {
+            return convert(msg, from, to, result, pos);
+        }
+        int chunk = Math.max(PARALLEL_MIN / 4,
+                             (to - from) / (pool.getParallelism() * 4) + 1);
+        int chunks = (to - from + chunk - 1) / chunk;
+        int[] starts = new int[chunks + 1];
+        pool.invoke(new ChunkTask(0, chunks, k -> {
+            int lo = from + k * chunk;
+            int hi = Math.min(to, lo + chunk);
+            int n = 0;
+            for (int i = lo; i < hi; i++) {
+                if (msg[i] != ' ') {
+                    n += 1;
+                }
+            }
+            starts[k + 1] = n;
+        }));
+        for (int k = 0; k < chunks; k++) {
+            starts[k + 1] += starts[k];
+        }
+
+        KeystreamTable table = keystream();
+        int state = steps.state(this);
+        int[] settings = new int[numRotors()];
+        for (int i = 0; i < settings.length; i++) {
+            settings[i] = getRotor(i).setting();
+        }
+        pool.invoke(new ChunkTask(0, chunks, k -> {
+            int lo = from + k * chunk;
+            int hi = Math.min(to, lo + chunk);
+            int s = steps.jump(state, starts[k]);
+            if (table != null) {
+                convertRange(msg, lo, hi, result, pos + starts[k], s, table);
+            } else {
+                int[] posn = settings.clone();
+                steps.decode(s, posn);
+                convertRange(msg, lo, hi, result, pos + starts[k], posn);
+            }
+        }));
+        steps.setRotors(this, steps.jump(state, starts[chunks]));
+        invalidateComposite();
+        return starts[chunks];
+    }
+
+    /** Convert MSG[LO .. HI-1], skipping blanks, into RESULT[K ..] using
+     *  TABLE, starting with my moving rotors in state STATE.  Does not
+     *  change my rotors. */
+    private void convertRange(char[] msg, int lo, int hi, char[] result,
+                              int k, int state, KeystreamTable table) {
+        for (int i = lo; i < hi; i++) {
+            char ch = msg[i];
+            if (ch != ' ') {
+                state = table.next(state);
+                result[k] = _alphabet.toChar(table.convert(state,
+                                                           index(ch)));
+                k++;
+            }
+        }
+    }
+
+    /** Convert MSG[LO .. HI-1], skipping blanks, into RESULT[K ..]
+     *  starting with my rotor slots at settings POSN, which is updated
+     *  as my rotors would be.  Does not change my rotors. */
+    private void convertRange(char[] msg, int lo, int hi, char[] result,
+                              int k, int[] posn) {
+        int last = numRotors() - 1;
+        Permutation reflector = getRotor(0).permutation();
+        for (int i = lo; i < hi; i++) {
+            char ch = msg[i];
+            if (ch != ' ') {
+                step(posn);
+                int c = _plugboard.permute(index(ch));
+                for (int r = last; r > 0; r--) {
+                    c = _theseRotors.get(r).forward(posn[r], c);
+                }
+                c = reflector.permute(c);
+                for (int r = 1; r <= last; r++) {
+                    c = _theseRotors.get(r).backward(posn[r], c);
+                }
+                result[k] = _alphabet.toChar(_plugboard.permute(c));
+                k++;
+            }
+        }
+    }
+
+    /** A task that performs an action on each of a range of chunk
+     *  numbers, dividing the range among the threads of its pool. */
+    private static class ChunkTask extends RecursiveAction {
+
+        /** A task performing ACTION on each of chunks LO .. HI-1. */
+        ChunkTask(int lo, int hi, IntConsumer action) {
+            _lo = lo;
+            _hi = hi;
+            _action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= 1) {
+                if (_hi > _lo) {
+                    _action.accept(_lo);
+                }
+            } else {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new ChunkTask(_lo, mid, _action),
+                          new ChunkTask(mid, _hi, _action));
+            }
+        }
+
+        /** First chunk. */
+        private final int _lo;
+
+        /** One past the last chunk. */
+        private final int _hi;
+
+        /** Action applied to each chunk. */
+        private final IntConsumer _action;
+
+        /** Version of my serialized form. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Use keystream tables for bulk conversion, keeping tables of at
+     *  most MAXBYTES bytes in all.  Tables whose entries need more than
+     *  OFFHEAP bytes are kept outside the Java heap.  When the table for
+     *  the current rotors and plugboard would not fit, conversion proceeds
+     *  rotor by rotor as usual.  A MAXBYTES of 0 turns tables off, which
+     *  is the initial state. */
+    void setKeystreamLimit(long maxBytes, long offHeap) {
+        _keystreamLimit = maxBytes;
+        _keystreamOffHeap = offHeap;
+        _keystreams.clear();
+        _keystreamBytes = 0;
+        _keystreamKnown = false;
+    }
+
+    /** Return the keystream table for my current rotors, settings of my
+     *  non-moving rotors, and plugboard, building it if needed, or null
+     *  if keystream tables are off or it would not fit. */
+    private KeystreamTable keystream() {
+        if (_keystreamLimit <= 0 || _traced) {
+            return null;
+        }
+        if (_keystreamKnown) {
+            return _keystream;
+        }
+        ArrayList<Object> key = new ArrayList<>();
+        for (Rotor rotor : _theseRotors) {
+            key.add(rotor.spec());
+        }
+        for (int i = 0; i < StepTable.firstMoving(this); i++) {
+            key.add(_theseRotors.get(i).setting());
+        }
+        for (int c = 0; c < _alphabet.size(); c++) {
+            key.add(_plugboard.permute(c));
+        }
+        _keystream = _keystreams.get(key);
+        if (_keystream == null) {
+            StepTable steps = steps();
+            if (steps != null) {
+                _keystream = KeystreamTable.build(this, steps, _keystreamLimit,
+                                                  _keystreamOffHeap);
+            }
+            if (_keystream != null) {
+                _keystreams.put(key, _keystream);
+                _keystreamBytes += _keystream.bytes();
+            }
+            Iterator<KeystreamTable> tables = _keystreams.values().iterator();
+            while (_keystreamBytes > _keystreamLimit) {
+                KeystreamTable eldest = tables.next();
+                if (eldest != _keystream) {
+                    _keystreamBytes -= eldest.bytes();
+                    tables.remove();
+                }
+            }
+        }
+        _keystreamKnown = true;
+        return _keystream;
+    }
+
+    /** Set my moving rotors to state STATE of TABLE. */
+    private void setState(KeystreamTable table, int state) {
+        table.steps().setRotors(this, state);
+        invalidateComposite();
+    }
+
+    /** Return the index of CH, which must be in my alphabet. */
+    private int index(char ch) {
+        int result = _alphabet.toInt(ch);
+        if (result < 0) {
+            throw error("character %c is not in the alphabet", ch);
         }
         return result;
     }
@@ -169,8 +814,39 @@ class Machine {
     /** Number of pawls. */
     private int _pawls;
 
-    /** List of all possible rotors in the configuration. */
-    private Object[] _allRotors;
+    /** The rotors available to me, by name, each built from its
+     *  description only when first inserted. */
+    private RotorCatalog _catalog;
+
+    /** The settings of the rotors in _theseRotors, which are bound to
+     *  its elements. */
+    private int[] _settings = new int[0];
+
+    /** The settings of the rotors before the line convertLine is
+     *  converting, restored if the line is invalid. */
+    private int[] _saved = new int[0];
+
+    /** Number of bits each setting occupies in a snapshot. */
+    private final int _settingBits;
+
+    /** Mask of the low _settingBits bits. */
+    private final long _settingMask;
+
+    /** Mask of the bits of a snapshot holding the settings of the
+     *  non-moving rotors after the reflector. */
+    private long _fixedBits;
+
+    /** Hash of the rotors in _theseRotors. */
+    private long _rotorsHash;
+
+    /** Multiplier combining values in stateHash. */
+    private static final long HASH_MULTIPLIER = 31;
+
+    /** Multiplier of the first final mixing step of stateHash. */
+    private static final long HASH_MIX1 = 0xff51afd7ed558ccdL;
+
+    /** Multiplier of the second final mixing step of stateHash. */
+    private static final long HASH_MIX2 = 0xc4ceb9fe1a85ec53L;
 
     /** Plugboard permutation. */
     private Permutation _plugboard;
@@ -178,4 +854,64 @@ class Machine {
     /** Rotors of the input. */
     private ArrayList<Rotor> _theseRotors;
 
+    /** Receives my conversions. */
+    private final Tracer _tracer;
+
+    /** True iff _tracer records anything, in which case conversions
+     *  take the step-by-step path. */
+    private final boolean _traced;
+
+    /** True iff applyRotors uses _composite. */
+    private boolean _useComposite;
+
+    /** Result of passing each index from the fast rotor through the
+     *  remaining rotors and back.  An entry is valid only if the same
+     *  entry of _compositeStamp is _compositeGeneration. */
+    private final int[] _composite;
+
+    /** Generation in which each entry of _composite was computed. */
+    private final int[] _compositeStamp;
+
+    /** Current generation of _composite. */
+    private int _compositeGeneration;
+
+    /** Number of times _composite has been discarded. */
+    private long _compositeRebuilds;
+
+    /** Number of entries of _composite computed. */
+    private long _compositeFills;
+
+    /** Shortest message that convert divides among threads. */
+    private static final int PARALLEL_MIN = 1 << 16;
+
+    /** Stepping of my moving rotors, or null if not yet built. */
+    private StepTable _steps;
+
+    /** Total size in bytes allowed for keystream tables, or 0 if they
+     *  are turned off. */
+    private long _keystreamLimit;
+
+    /** Keystream tables larger than this many bytes are kept outside the
+     *  heap. */
+    private long _keystreamOffHeap;
+
+    /** Total size in bytes of the tables in _keystreams. */
+    private long _keystreamBytes;
+
+    /** Keystream tables, least recently used first, indexed by the specs
+     *  of the rotors, the settings of the non-moving rotors, and the image
+     *  of each character under the plugboard, none of which can change
+     *  once in a key.  Tables that would not fit are not kept, so every
+     *  entry counts against _keystreamLimit. */
+    private final LinkedHashMap<Object, KeystreamTable> _keystreams =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The keystream table for the current rotors and plugboard, or null
+     *  if it would not fit.  Valid only if _keystreamKnown. */
+    private KeystreamTable _keystream;
+
+    /** True iff _keystream has been looked up since the rotors or
+     *  plugboard last changed. */
+    private boolean _keystreamKnown;
+
 }
@@ -1,11 +1,20 @@
 package enigma;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 import org.junit.Test;
 import org.junit.Rule;
 import org.junit.rules.Timeout;
 import static org.junit.Assert.*;
+import static java.util.Arrays.copyOfRange;
 
 /** The suite of all JUnit tests for the Machine class.
  *  @author Abhiroop Mathur
@@ -42,6 +51,43 @@ public class MachineTest {
     private static final String[] ROTORS1 = { "B", "Beta", "III", "IV", "I" };
     private static final String SETTING1 = "AXLE";
 
+    /** A plaintext long enough for statistical attacks. */
+    private static final String TALE =
+        "ITWASTHEBESTOFTIMESITWASTHEWORSTOFTIMESITWASTHEAGEOFWISDOMIT"
+        + "WASTHEAGEOFFOOLISHNESSITWASTHEEPOCHOFBELIEFITWASTHEEPOCHOF"
+        + "INCREDULITYITWASTHESEASONOFLIGHTITWASTHESEASONOFDARKNESSIT"
+        + "WASTHESPRINGOFHOPEITWASTHEWINTEROFDESPAIR";
+
+    /** English text, other than TALE, on which to train n-gram
+     *  models. */
+    private static final String ENGLISH =
+        "Call me Ishmael. Some years ago, never mind how long precisely, "
+        + "having little or no money in my purse, and nothing particular "
+        + "to interest me on shore, I thought I would sail about a little "
+        + "and see the watery part of the world. It is a way I have of "
+        + "driving off the spleen and regulating the circulation. "
+        + "Whenever I find myself growing grim about the mouth; whenever "
+        + "it is a damp, drizzly November in my soul; whenever I find "
+        + "myself involuntarily pausing before coffin warehouses, and "
+        + "bringing up the rear of every funeral I meet; then, I account "
+        + "it high time to get to sea as soon as I can. "
+        + "Four score and seven years ago our fathers brought forth on "
+        + "this continent, a new nation, conceived in Liberty, and "
+        + "dedicated to the proposition that all men are created equal. "
+        + "Now we are engaged in a great civil war, testing whether that "
+        + "nation, or any nation so conceived and so dedicated, can long "
+        + "endure. We are met on a great battle-field of that war. We "
+        + "have come to dedicate a portion of that field, as a final "
+        + "resting place for those who here gave their lives that that "
+        + "nation might live. It is altogether fitting and proper that "
+        + "we should do this. It is a truth universally acknowledged, "
+        + "that a single man in possession of a good fortune, must be in "
+        + "want of a wife. However little known the feelings or views of "
+        + "such a man may be on his first entering a neighbourhood, this "
+        + "truth is so well fixed in the minds of the surrounding "
+        + "families, that he is considered the rightful property of some "
+        + "one or other of their daughters.";
+
     private Machine mach1() {
         Machine mach = new Machine(AZ, 5, 3, ROTORS.values());
         mach.insertRotors(ROTORS1);
@@ -49,6 +95,49 @@ public class MachineTest {
         return mach;
     }
 
+    @Test
+    public void testTracers() {
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        RingTracer ring = new RingTracer(4, 5);
+        Machine printing = new Machine(AZ, 5, 3, ROTORS.values(),
+                new PrintTracer(new PrintStream(printed, true)));
+        Machine recording = new Machine(AZ, 5, 3, ROTORS.values(), ring);
+        for (Machine mach : new Machine[] { printing, recording }) {
+            mach.insertRotors(ROTORS1);
+            mach.setRotors(SETTING1);
+            mach.setPlugboard(new Permutation("(YF) (HZ)", AZ));
+            assertEquals(25, mach.convert(24));
+        }
+        assertEquals("[AXLF] Y -> F -> I -> V -> J -> W -> X -> Z -> J "
+                     + "-> H -> Z" + System.lineSeparator(),
+                     printed.toString());
+        char[] bad = "AB Ca".toCharArray();
+        assertEquals(-1, printing.convertLine(bad, 0, bad.length,
+                                              new char[bad.length * 2], 0,
+                                              5));
+        assertEquals("AXLF", settings(printing));
+        assertEquals(1, printed.toString().split(System.lineSeparator())
+                     .length);
+
+        int[] record = new int[ring.width()];
+        ring.get(0, record);
+        String recorded = "";
+        for (int c : record) {
+            recorded += AZ.toChar(c);
+        }
+        assertEquals("AXLFYFIVJWXZJHZ", recorded);
+        recording.convert("ABCDEF");
+        assertEquals(7, ring.count());
+        ByteArrayOutputStream dumped = new ByteArrayOutputStream();
+        ring.dump(Channels.newChannel(dumped));
+        assertEquals(4 * ring.width() * 2, dumped.size());
+        ByteBuffer bytes = ByteBuffer.wrap(dumped.toByteArray());
+        ring.get(3, record);
+        for (int i = 0; i < ring.width(); i++) {
+            assertEquals(record[i], bytes.getChar());
+        }
+    }
+
     @Test
     public void testInsertRotors() {
         Machine mach = new Machine(AZ, 5, 3, ROTORS.values());
@@ -56,11 +145,350 @@ public class MachineTest {
         assertEquals(5, mach.numRotors());
         assertEquals(3, mach.numPawls());
         assertEquals(AZ, mach.alphabet());
-        assertEquals(ROTORS.get("B"), mach.getRotor(0));
-        assertEquals(ROTORS.get("Beta"), mach.getRotor(1));
-        assertEquals(ROTORS.get("III"), mach.getRotor(2));
-        assertEquals(ROTORS.get("IV"), mach.getRotor(3));
-        assertEquals(ROTORS.get("I"), mach.getRotor(4));
+        assertSame(ROTORS.get("B").spec(), mach.getRotor(0).spec());
+        assertSame(ROTORS.get("Beta").spec(), mach.getRotor(1).spec());
+        assertSame(ROTORS.get("III").spec(), mach.getRotor(2).spec());
+        assertSame(ROTORS.get("IV").spec(), mach.getRotor(3).spec());
+        assertSame(ROTORS.get("I").spec(), mach.getRotor(4).spec());
+    }
+
+    @Test
+    public void testSharedRotors() {
+        Machine mach = mach1();
+        Machine other = mach1();
+        Machine fresh = mach1();
+        for (Machine m : new Machine[] { mach, other, fresh }) {
+            m.setPlugboard(new Permutation("", AZ));
+        }
+        other.setRotors("ZZZZ");
+        String expected = fresh.convert("FROMHISSHOULDERHIAWATHA");
+        other.convert("FROMHISSHOULDERHIAWATHA");
+        assertEquals(expected, mach.convert("FROMHISSHOULDERHIAWATHA"));
+        assertEquals(0, ROTORS.get("I").setting());
+        assertSame(ROTORS.get("I").spec(), mach.getRotor(4).spec());
+        assertNotSame(mach.getRotor(4), other.getRotor(4));
+        assertNotEquals(mach.getRotor(4), other.getRotor(4));
+        assertSame(mach.getRotor(4).spec(), other.getRotor(4).spec());
+        Machine copy = mach.copy();
+        copy.insertRotors(ROTORS1);
+        assertSame(mach.getRotor(4).spec(), copy.getRotor(4).spec());
+    }
+
+    @Test
+    public void testSnapshot() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        mach.setKeystreamLimit(1 << 20, 1 << 20);
+        long start = mach.snapshot();
+        long startHash = mach.stateHash();
+        String first = mach.convert("FROMHISSHOULDERHIAWATHA");
+        assertNotEquals(start, mach.snapshot());
+        assertNotEquals(startHash, mach.stateHash());
+        mach.restore(start);
+        assertEquals(start, mach.snapshot());
+        assertEquals(startHash, mach.stateHash());
+        assertEquals(first, mach.convert("FROMHISSHOULDERHIAWATHA"));
+
+        Machine other = mach1();
+        other.setPlugboard(mach.plugboard());
+        other.setRotors("BXLE");
+        long shifted = other.snapshot();
+        mach.restore(shifted);
+        assertEquals(other.stateHash(), mach.stateHash());
+        assertEquals(other.convert("FROMHISSHOULDERHIAWATHA"),
+                     mach.convert("FROMHISSHOULDERHIAWATHA"));
+        assertEquals(settings(other), settings(mach));
+    }
+
+    @Test
+    public void testApplySetting() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        Machine.Setting start = mach.setting();
+        String first = mach.convert("FROMHISSHOULDERHIAWATHA");
+        mach.apply(start);
+        assertEquals(first, mach.convert("FROMHISSHOULDERHIAWATHA"));
+
+        Machine other = new Machine(AZ, 5, 3, ROTORS.values());
+        other.insertRotors(new String[] { "B", "Beta", "I", "III", "IV" });
+        other.apply(start);
+        assertSame(ROTORS.get("III").spec(), other.getRotor(2).spec());
+        assertEquals(first, other.convert("FROMHISSHOULDERHIAWATHA"));
+        assertEquals(settings(mach), settings(other));
+    }
+
+    @Test
+    public void testConvertLine() {
+        for (long limit : new long[] { 0, 1 << 20 }) {
+            Machine mach = mach1();
+            mach.setKeystreamLimit(limit, limit);
+            mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)",
+                                              AZ));
+            char[] result = new char[30];
+            char[] bad = "FROM HIS SHOULDER hIAWATHA".toCharArray();
+            assertEquals(-1,
+                         mach.convertLine(bad, 0, bad.length, result, 0, 5));
+            char[] msg = "FROM HIS SHOULDER HIAWATHAxx".toCharArray();
+            int n = mach.convertLine(msg, 0, msg.length - 2, result, 1, 5);
+            assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW",
+                         new String(result, 1, n));
+        }
+    }
+
+    @Test
+    public void testLaneEngine() {
+        Random random = new Random(61);
+        Permutation[] plugboards = {
+            new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ),
+            new Permutation("(YF) (ZH)", AZ),
+            new Permutation("", AZ),
+        };
+        int count = 37;
+        int[] starts = new int[count + 1];
+        for (int k = 0; k < count; k++) {
+            starts[k + 1] = starts[k] + random.nextInt(2000);
+        }
+        int[] msgs = new int[starts[count]];
+        for (int j = 0; j < msgs.length; j++) {
+            msgs[j] = random.nextInt(AZ.size());
+        }
+        int[] settings = new int[count * 4];
+        int[] plugs = new int[count * AZ.size()];
+        String[] setStrings = new String[count];
+        for (int k = 0; k < count; k++) {
+            char[] setting = new char[4];
+            for (int i = 0; i < 4; i++) {
+                settings[k * 4 + i] = random.nextInt(AZ.size());
+                setting[i] = AZ.toChar(settings[k * 4 + i]);
+            }
+            setStrings[k] = new String(setting);
+            for (int c = 0; c < AZ.size(); c++) {
+                plugs[k * AZ.size() + c] =
+                    plugboards[k % plugboards.length].permute(c);
+            }
+        }
+
+        Machine mach = mach1();
+        mach.setPlugboard(plugboards[0]);
+        for (LaneEngine lanes : new LaneEngine[] {
+                new LaneEngine(mach), LaneEngine.forMachine(mach) }) {
+            int[] shared = new int[msgs.length];
+            int[] own = new int[msgs.length];
+            lanes.convert(msgs, starts, count, settings, null, shared);
+            lanes.convert(msgs, starts, count, settings, plugs, own);
+            for (int k = 0; k < count; k++) {
+                int from = starts[k];
+                int to = starts[k + 1];
+                Machine check = mach1();
+                check.setRotors(setStrings[k]);
+                check.setPlugboard(plugboards[0]);
+                int[] expected = new int[to - from];
+                check.convert(msgs, from, to, expected, 0);
+                assertArrayEquals(expected, copyOfRange(shared, from, to));
+                check.setRotors(setStrings[k]);
+                check.setPlugboard(plugboards[k % plugboards.length]);
+                check.convert(msgs, from, to, expected, 0);
+                assertArrayEquals(expected, copyOfRange(own, from, to));
+            }
+        }
+        assertEquals(SETTING1, settings(mach));
+
+        Machine unplugged = mach1();
+        for (LaneEngine lanes : new LaneEngine[] {
+                new LaneEngine(unplugged),
+                LaneEngine.forMachine(unplugged) }) {
+            int[] converted = new int[msgs.length];
+            lanes.convert(msgs, starts, count, settings, null, converted);
+            Machine check = mach1();
+            check.setRotors(setStrings[0]);
+            check.setPlugboard(plugboards[2]);
+            int[] expected = new int[starts[1]];
+            check.convert(msgs, 0, starts[1], expected, 0);
+            assertArrayEquals(expected, copyOfRange(converted, 0, starts[1]));
+        }
+    }
+
+    @Test
+    public void testKeySweep() {
+        Machine mach = mach1();
+        Permutation plugboard = new Permutation("(HQ) (EX) (IP) (TR)", AZ);
+        mach.setPlugboard(plugboard);
+        int[] msg = new int[40];
+        Random random = new Random(61);
+        for (int j = 0; j < msg.length; j++) {
+            msg[j] = random.nextInt(AZ.size());
+        }
+        KeySweep sweep = new KeySweep(mach);
+        assertEquals(26 * 26 * 26 * 26, sweep.positions());
+        long[] seen = new long[1];
+        sweep.sweep(msg, 2, msg.length, (posn, result, n) -> {
+            seen[0] += 1;
+            if (seen[0] % 101 == 1) {
+                Machine check = mach1();
+                check.setRotors(sweep.setting(posn));
+                check.setPlugboard(plugboard);
+                int[] expected = new int[n];
+                check.convert(msg, 2, msg.length, expected, 0);
+                assertArrayEquals(expected, copyOfRange(result, 0, n));
+            }
+        });
+        assertEquals(sweep.positions(), seen[0]);
+        assertEquals(SETTING1, settings(mach));
+    }
+
+    @Test
+    public void testBombe() {
+        Machine mach = new Machine(AZ, 4, 3, ROTORS.values());
+        String[] order = { "B", "III", "IV", "I" };
+        mach.insertRotors(order);
+        mach.setRotors("XLE");
+        mach.setPlugboard(new Permutation("(YF) (ZH) (AQ) (TW) (KL)", AZ));
+        String plain = "WETTERVORHERSAGEBISKAYAHEUTEKEINEBESONDEREN"
+            + "VORKOMMNISSE";
+        String cipher = mach.convert(plain);
+        ArrayList<String[]> orders = new ArrayList<>();
+        orders.add(order);
+        Bombe bombe = new Bombe(mach, cipher, plain.substring(10, 36), 10,
+                                orders);
+        assertEquals(26 * 26 * 26, bombe.positions());
+        ArrayList<String> stops = new ArrayList<>();
+        AtomicLong done = new AtomicLong();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            bombe.search(pool, stop -> {
+                synchronized (stops) {
+                    stops.add(stop.toString());
+                }
+            }, (n, total) -> done.accumulateAndGet(n, Math::max));
+            assertTrue(stops.contains("* B III IV I XLE (AQ) (FY) (HZ) (KL) "
+                                      + "(TW)"));
+            assertEquals(bombe.positions(), done.get());
+
+            ArrayList<Bombe.Stop> first = new ArrayList<>();
+            Bombe.Run[] run = new Bombe.Run[1];
+            run[0] = bombe.run(stop -> {
+                synchronized (first) {
+                    first.add(stop);
+                }
+                run[0].cancel();
+            }, null);
+            run[0].invoke(pool);
+            assertEquals(1, first.size());
+
+            Bombe.Run cancelled = bombe.run(stop -> fail(), null);
+            cancelled.cancel();
+            cancelled.invoke(pool);
+            assertEquals(0, cancelled.done());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBombeTooManyStates() {
+        Machine mach = new Machine(AZ, 6, 5, ROTORS.values());
+        ArrayList<String[]> orders = new ArrayList<>();
+        orders.add(new String[] { "B", "Beta", "I", "II", "III", "IV" });
+        new Bombe(mach, "ABCDEFGH", "BCDE", 1, orders);
+    }
+
+    @Test
+    public void testCoincidenceSearch() throws InterruptedException {
+        Machine mach = new Machine(AZ, 4, 3, ROTORS.values());
+        String[] order = { "B", "III", "IV", "I" };
+        mach.insertRotors(order);
+        mach.setRotors("QEV");
+        mach.setPlugboard(new Permutation("", AZ));
+        String plain = TALE;
+        String cipher = mach.convert(plain);
+        ArrayList<String[]> orders = new ArrayList<>();
+        orders.add(new String[] { "B", "I", "IV", "III" });
+        orders.add(order);
+        CoincidenceSearch search =
+            new CoincidenceSearch(mach, cipher, orders, 5);
+        assertEquals(2 * 26 * 26 * 26, search.positions());
+        AtomicLong done = new AtomicLong();
+        AtomicLong otherDone = new AtomicLong();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        List<CoincidenceSearch.Candidate> best;
+        try {
+            Thread other = new Thread(() ->
+                search.search(pool, (n, total) ->
+                              otherDone.accumulateAndGet(n, Math::max)));
+            other.start();
+            best = search.search(pool, (n, total) ->
+                                 done.accumulateAndGet(n, Math::max));
+            other.join();
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(search.positions(), done.get());
+        assertEquals(search.positions(), otherDone.get());
+        assertEquals(5, best.size());
+        assertEquals("B III IV I",
+                     String.join(" ", best.get(0).rotors()));
+        assertEquals("QEV", best.get(0).setting());
+        int[] counts = new int[AZ.size()];
+        long pairs = 0;
+        for (char c : plain.toCharArray()) {
+            pairs += counts[AZ.toInt(c)]++;
+        }
+        assertEquals(2.0 * pairs / plain.length() / (plain.length() - 1),
+                     best.get(0).index(), 1e-12);
+        for (int k = 1; k < best.size(); k++) {
+            assertTrue(best.get(k - 1).index() >= best.get(k).index());
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testCoincidenceSearchTooManyStates() {
+        Machine mach = new Machine(AZ, 6, 5, ROTORS.values());
+        ArrayList<String[]> orders = new ArrayList<>();
+        orders.add(new String[] { "B", "Beta", "I", "II", "III", "IV" });
+        new CoincidenceSearch(mach, "ABCDEFGH", orders, 5);
+    }
+
+    @Test
+    public void testPlugboardSolver() throws InterruptedException {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(AQ) (EX) (IP) (TR) (HK)", AZ));
+        String cipher = mach.convert(TALE);
+        mach.setRotors(SETTING1);
+        mach.setPlugboard(new Permutation("", AZ));
+        NgramModel model =
+            new NgramModel(AZ, 3, ENGLISH.replaceAll("[^A-Za-z]", ""));
+        PlugboardSolver solver =
+            new PlugboardSolver(mach, cipher, model, 5);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        PlugboardSolver.Solution best;
+        PlugboardSolver.Solution[] others = new PlugboardSolver.Solution[1];
+        try {
+            best = solver.solve(pool, 8, 2000, 1.0, 1);
+            Thread other = new Thread(() ->
+                others[0] = solver.solve(pool, 8, 2000, 1.0, 1));
+            other.start();
+            assertEquals(best.trials(),
+                         solver.solve(pool, 8, 2000, 1.0, 1).trials());
+            other.join();
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(best.trials(), others[0].trials());
+        assertEquals("(AQ) (EX) (HK) (IP) (RT)", best.plugboard());
+        assertEquals("* B Beta III IV I AXLE (AQ) (EX) (HK) (IP) (RT)",
+                     best.toString());
+        assertTrue(best.trials() > 8);
+        assertEquals(SETTING1, settings(mach));
+
+        Machine check = mach1();
+        check.setPlugboard(new Permutation(best.plugboard(), AZ));
+        String decrypted = check.convert(cipher);
+        int[] text = new int[decrypted.length()];
+        for (int j = 0; j < text.length; j++) {
+            text[j] = AZ.toInt(decrypted.charAt(j));
+        }
+        assertEquals((double) model.score(text, text.length)
+                     / NgramModel.SCALE, best.score(), 1e-9);
     }
 
     @Test
@@ -78,6 +506,164 @@ public class MachineTest {
                 mach.convert("FROMHISSHOULDERHIAWATHA"));
     }
 
+    @Test
+    public void testConvertBulk() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        char[] msg = "xxFROM HIS SHOULDER HIAWATHAxx".toCharArray();
+        char[] result = new char[msg.length];
+        int n = mach.convert(msg, 2, msg.length - 2, result, 1);
+        assertEquals(23, n);
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW", new String(result, 1, n));
+
+        mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        int[] indices = new int[23];
+        String plain = "FROMHISSHOULDERHIAWATHA";
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = AZ.toInt(plain.charAt(i));
+        }
+        mach.convert(indices, 0, indices.length, indices, 0);
+        for (int i = 0; i < indices.length; i++) {
+            assertEquals("QVPQSOKOILPUBKJZPISFXDW".charAt(i),
+                    AZ.toChar(indices[i]));
+        }
+    }
+
+    @Test
+    public void testCompositeCache() {
+        String msg = message(2000);
+        Machine cached = mach1();
+        cached.setPlugboard(new Permutation("(HQ) (EX)", AZ));
+        String expected = cached.convert(msg.toString());
+        long rebuilds = cached.compositeRebuilds();
+        assertTrue(rebuilds > 0);
+        assertTrue(rebuilds < 200);
+
+        Machine plain = mach1();
+        plain.setPlugboard(new Permutation("(HQ) (EX)", AZ));
+        plain.setCompositeCache(false);
+        assertFalse(plain.compositeCache());
+        assertEquals(expected, plain.convert(msg.toString()));
+    }
+
+    /** Return a message of LENGTH letters from AZ. */
+    private static String message(int length) {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            msg.append(TestUtils.UPPER_STRING.charAt((i * 7 + i / 3) % 26));
+        }
+        return msg.toString();
+    }
+
+    /** Return the settings of the non-reflector rotors of MACH. */
+    private static String settings(Machine mach) {
+        String result = "";
+        for (int i = 1; i < mach.numRotors(); i++) {
+            result += AZ.toChar(mach.getRotor(i).setting());
+        }
+        return result;
+    }
+
+    @Test
+    public void testKeystreamTable() {
+        String msg = message(20000);
+        Machine plain = mach1();
+        plain.setPlugboard(new Permutation("(HQ) (EX) (IP)", AZ));
+        String expected = plain.convert(msg);
+
+        Machine fast = mach1();
+        fast.setKeystreamLimit(1 << 24, 0);
+        fast.setPlugboard(new Permutation("(HQ) (EX) (IP)", AZ));
+        assertEquals(expected.substring(0, 7),
+                fast.convert(msg.substring(0, 7)));
+        assertEquals(expected.substring(7), fast.convert(msg.substring(7)));
+        assertEquals(settings(plain), settings(fast));
+
+        Machine small = mach1();
+        small.setKeystreamLimit(1000, 0);
+        small.setPlugboard(new Permutation("(HQ) (EX) (IP)", AZ));
+        assertEquals(expected, small.convert(msg));
+    }
+
+    @Test
+    public void testStep() {
+        Machine mach = mach1();
+        int[] posn = new int[5];
+        for (int s = 0; s < 26 * 26 * 26; s++) {
+            mach.setRotors("A" + AZ.toChar(s / 676) + AZ.toChar(s / 26 % 26)
+                    + AZ.toChar(s % 26));
+            for (int i = 0; i < 5; i++) {
+                posn[i] = mach.getRotor(i).setting();
+            }
+            mach.step(posn);
+            mach.advanceRotors();
+            for (int i = 0; i < 5; i++) {
+                assertEquals(mach.getRotor(i).setting(), posn[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testJumpAhead() {
+        HashMap<String, String> nav = TestUtils.NAVALA;
+        ArrayList<Rotor> rotors = new ArrayList<>(ROTORS.values());
+        rotors.add(new MovingRotor("VI",
+                new Permutation(nav.get("VI"), AZ), "ZM"));
+        rotors.add(new MovingRotor("VIII",
+                new Permutation(nav.get("VIII"), AZ), "ZM"));
+        String[] order = { "B", "Beta", "VI", "VIII", "I" };
+        Machine stepped = new Machine(AZ, 5, 3, rotors);
+        Machine jumped = new Machine(AZ, 5, 3, rotors);
+        long[] offsets = { 0, 1, 11, 12, 25, 337, 676, 16900, 17577, 123457 };
+        for (long n : offsets) {
+            stepped.insertRotors(order);
+            stepped.setRotors("CLZY");
+            for (long i = 0; i < n; i++) {
+                stepped.advanceRotors();
+            }
+            String expected = settings(stepped);
+            jumped.insertRotors(order);
+            jumped.setRotors("CLZY");
+            jumped.advanceRotors(n);
+            assertEquals("offset " + n, expected, settings(jumped));
+        }
+    }
+
+    @Test
+    public void testConvertParallel() {
+        String msg = message(300000).replace("Q", " ");
+        Machine plain = mach1();
+        plain.setPlugboard(new Permutation("(HQ) (EX) (IP)", AZ));
+        String expected = plain.convert(msg);
+
+        Machine par = mach1();
+        par.setPlugboard(new Permutation("(HQ) (EX) (IP)", AZ));
+        char[] result = new char[msg.length()];
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            int n = par.convert(msg.toCharArray(), 0, msg.length(), result,
+                                0, pool);
+            assertEquals(expected, new String(result, 0, n));
+            assertEquals(settings(plain), settings(par));
+        } finally {
+            pool.shutdown();
+        }
+
+        par = mach1();
+        par.setKeystreamLimit(1 << 24, 1 << 30);
+        par.setPlugboard(new Permutation("(HQ) (EX) (IP)", AZ));
+        pool = new ForkJoinPool(3);
+        try {
+            int n = par.convert(msg.toCharArray(), 0, msg.length(), result,
+                                0, pool);
+            assertEquals(expected, new String(result, 0, n));
+            assertEquals(settings(plain), settings(par));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     @Test
     public void advanceRotorsTest() {
         Alphabet test = new Alphabet("ABC");
@@ -1,10 +1,8 @@
 package enigma;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.PrintStream;
+import java.io.ByteArrayOutputStream;
 
-import java.util.Scanner;
+import java.io.PrintStream;
 
 import java.util.List;
 
@@ -12,15 +10,17 @@ import java.util.Set;
 
 import java.util.HashSet;
 
-import ucb.util.CommandArgs;
+import java.util.LinkedHashMap;
 
-import java.util.NoSuchElementException;
+import ucb.util.CommandArgs;
 
 import java.util.ArrayList;
 
 import java.util.Arrays;
 
-import java.util.Collection;
+import java.util.concurrent.Callable;
+
+import java.util.concurrent.ForkJoinPool;
 
 import static enigma.EnigmaException.*;
 import static java.util.Arrays.copyOfRange;
@@ -42,13 +42,28 @@ public final class Main {
     public static void main(String... args) {
         try {
             CommandArgs options =
-                new CommandArgs("--verbose --=(.*){1,3}", args);
+                new CommandArgs("--verbose --parallel --segments "
+                                + "--snapshot --pipeline --batch=(\\d+) "
+                                + "--=(.*){1,3}", args);
             if (!options.ok()) {
                 throw error("Usage: java enigma.Main [--verbose] "
-                            + "[INPUT [OUTPUT]]");
+                            + "[--parallel] [--segments] [--snapshot] "
+                            + "[--pipeline [--batch=N]] "
+                            + "CONFIG [INPUT [OUTPUT]]");
             }
 
             _verbose = options.contains("--verbose");
+            _parallel = options.contains("--parallel");
+            _segmented = options.contains("--segments");
+            _writeSnapshot = options.contains("--snapshot");
+            _pipelined = options.contains("--pipeline")
+                && !_parallel && !_segmented;
+            if (options.contains("--batch")) {
+                if (!options.contains("--pipeline")) {
+                    throw error("--batch requires --pipeline");
+                }
+                _batchSize = batchSize(options.getFirst("--batch"));
+            }
             new Main(options.get("--")).process();
             return;
         } catch (EnigmaException excp) {
@@ -57,52 +72,92 @@ public final class Main {
         System.exit(1);
     }
 
+    /** Return the batch size given by the argument N of --batch, which
+     *  must be from 1 to MAX_BATCH. */
+    private static int batchSize(String n) {
+        int result;
+        try {
+            result = Integer.parseInt(n);
+        } catch (NumberFormatException excp) {
+            result = 0;
+        }
+        if (result < 1 || result > MAX_BATCH) {
+            throw error("batch size must be from 1 to %d", MAX_BATCH);
+        }
+        return result;
+    }
+
     /** Open the necessary files for non-option arguments ARGS (see comment
       *  on main). */
     Main(List<String> args) {
-        _config = getInput(args.get(0));
+        this(args.get(0));
 
         if (args.size() > 1) {
-            _input = getInput(args.get(1));
+            _input = LineReader.open(args.get(1));
         } else {
-            _input = new Scanner(System.in);
+            _input = LineReader.stdin();
         }
 
         if (args.size() > 2) {
-            _output = getOutput(args.get(2));
+            _output = OutputWriter.open(args.get(2));
         } else {
-            _output = System.out;
+            _output = OutputWriter.stdout();
         }
     }
 
-    /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
-        try {
-            return new Scanner(new File(name));
-        } catch (IOException excp) {
-            throw error("could not open %s", name);
+    /** Open the configuration file named CONFIG, or its up-to-date
+     *  snapshot, for readConfig alone. */
+    private Main(String config) {
+        _configName = config;
+        _snapshot = ConfigSnapshot.load(_configName);
+        if (_snapshot == null) {
+            _config = LineReader.open(_configName);
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
-        try {
-            return new PrintStream(new File(name));
-        } catch (IOException excp) {
-            throw error("could not open %s", name);
-        }
+    /** Return a machine configured from the configuration file named
+     *  CONFIG, with all of the file's rotors available but none
+     *  inserted. */
+    static Machine readMachine(String config) {
+        return new Main(config).readConfig();
     }
 
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
     private void process() {
-        Machine mach = readConfig();
-        String setting = _input.nextLine();
-        if (!Character.toString(setting.charAt(0)).equals("*")) {
+        try {
+            Machine mach = readConfig();
+            try {
+                process(mach);
+            } catch (RuntimeException excp) {
+                flush(mach);
+                runSegments();
+                closePipeline(excp);
+                throw excp;
+            }
+        } finally {
+            _output.close();
+        }
+    }
+
+    /** Apply M to the messages in _input, sending the results to
+     *  _output. */
+    private void process(Machine mach) {
+        _input.nextLine();
+        if (!isSetting()) {
             throw new EnigmaException("Input does not start with a setting!");
         }
-        setUp(mach, setting);
+        String setting = _input.line();
+        if (_segmented) {
+            _machines = ThreadLocal.withInitial(mach::copy);
+            startSegment(mach, setting);
+        } else if (_pipelined) {
+            _pipeline = new Pipeline(mach, this::setUp, _output, _batchSize);
+            _pipeline.setting(_input.chars(), _input.length());
+        } else {
+            setUp(mach, setting);
+        }
         if (!_input.hasNextLine()) {
             _output.print("");
         }
@@ -111,72 +166,357 @@ public final class Main {
             if (!_input.hasNext()) {
                 break;
             }
-            String nextormsg = _input.nextLine();
+            _input.nextLine();
             int space = 0;
-            while (nextormsg.isEmpty()) {
-                if (_input.hasNextLine()) {
-                    nextormsg = _input.nextLine();
-                    space++;
-                }
+            while (_input.length() == 0) {
+                _input.nextLine();
+                space++;
             }
-            while (Character.toString(nextormsg.charAt(0)).equals("*")) {
-                setUp(mach, nextormsg);
+            while (isSetting()) {
+                if (_segmented) {
+                    startSegment(mach, _input.line());
+                } else if (_pipeline != null) {
+                    _pipeline.setting(_input.chars(), _input.length());
+                } else {
+                    flush(mach);
+                    setUp(mach, _input.line());
+                }
                 if (!_input.hasNextLine()) {
+                    runSegments();
+                    closePipeline(null);
                     return;
                 }
-                nextormsg = _input.nextLine();
+                _input.nextLine();
             }
 
-            for (int i = 0; i < space; i++) {
-                _output.println();
+            if (_segmented) {
+                _segments.get(_segments.size() - 1).add(_input.line(), space);
+                continue;
             }
-            nextormsg = nextormsg.replace(" ", "");
-            for (int i = 0; i
-                < nextormsg.length(); i++) {
-                if (!_alphabet.contains((nextormsg.charAt(i)))) {
-                    throw new EnigmaException("Message contains "
-                        + "characters outside of the alphabet!");
+            if (_pipeline != null) {
+                _pipeline.message(_input.chars(), _input.length(), space);
+                continue;
+            }
+            if (!_parallel) {
+                for (int i = 0; i < space; i++) {
+                    _output.println();
                 }
             }
-            String print = mach.convert(nextormsg);
-            printMessageLine(print);
+            if (!_parallel) {
+                convertLine(mach);
+                continue;
+            }
+            int n = message();
+            if (n < 0) {
+                flush(mach);
+                for (int k = 0; k < space; k++) {
+                    _output.println();
+                }
+                throw new EnigmaException("Message contains "
+                    + "characters outside of the alphabet!");
+            }
+            append(mach, _message, n, space);
+        }
+        flush(mach);
+        runSegments();
+        closePipeline(null);
+    }
+
+    /** Finish converting the lines given to _pipeline, if there is one,
+     *  followed by ERROR if it is not null, and throw the first error
+     *  among them. */
+    private void closePipeline(RuntimeException error) {
+        if (_pipeline != null) {
+            Pipeline pipeline = _pipeline;
+            _pipeline = null;
+            pipeline.close(error);
+        }
+    }
+
+    /** Return true iff the current line of _input is a settings line. */
+    private boolean isSetting() {
+        return _input.length() > 0 && _input.chars()[0] == '*';
+    }
+
+    /** Convert the current line of _input with M and print it in groups,
+     *  checking, converting and grouping each character in one pass.
+     *  Nothing is printed if the line contains a character outside the
+     *  alphabet. */
+    private void convertLine(Machine M) {
+        int length = _input.length();
+        int room = length + length / GROUP + 1;
+        if (_message.length < room) {
+            _message = new char[Math.max(room, _message.length * 2)];
+        }
+        int n = M.convertLine(_input.chars(), 0, length, _message, 0,
+                              GROUP);
+        if (n < 0) {
+            throw new EnigmaException("Message contains "
+                + "characters outside of the alphabet!");
+        }
+        _output.printLine(_message, 0, n);
+    }
+
+    /** Copy the current line of _input, without its blanks, into
+     *  _message, returning its length, or -1 if it contains a character
+     *  outside the alphabet. */
+    private int message() {
+        char[] line = _input.chars();
+        int length = _input.length();
+        if (_message.length < length) {
+            _message = new char[Math.max(length, _message.length * 2)];
+        }
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            char ch = line[i];
+            if (ch != ' ') {
+                if (!_alphabet.contains(ch)) {
+                    return -1;
+                }
+                _message[n] = ch;
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /** Begin a new segment of the input with settings line SETTING,
+     *  first converting the segments collected so far if there are
+     *  enough of them to be worth doing.  M is the machine that
+     *  the segments' machines copy. */
+    private void startSegment(Machine M, String setting) {
+        if (_segmentChars >= SEGMENT_LIMIT) {
+            runSegments();
+        }
+        _segments.add(new Segment(setting));
+    }
+
+    /** Convert the collected segments concurrently, print their output in
+     *  order, and forget them.  If any segment failed, throws its error
+     *  after printing the output of the segments before it, and of the
+     *  lines of the failing segment that preceded the error. */
+    private void runSegments() {
+        if (_segments.isEmpty()) {
+            return;
+        }
+        ArrayList<Segment> segments = new ArrayList<>(_segments);
+        _segments.clear();
+        _segmentChars = 0;
+        ForkJoinPool.commonPool().invokeAll(segments);
+        for (Segment segment : segments) {
+            System.err.print(segment._trace);
+            _output.print(segment._result);
+            if (segment._error != null) {
+                throw segment._error;
+            }
+        }
+    }
+
+    /** A settings line and the message lines that follow it, converted
+     *  independently of the rest of the input on a machine of its own. */
+    private class Segment implements Callable<Segment> {
+
+        /** A segment beginning with settings line SETTING. */
+        Segment(String setting) {
+            _setting = setting;
+        }
+
+        /** Add message line MSG, which follows SPACE blank lines. */
+        void add(String msg, int space) {
+            _lines.add(msg);
+            _spaces.add(space);
+            _segmentChars += msg.length();
+        }
+
+        /** Convert my lines into _result, recording any error in
+         *  _error, and, if --verbose was given, the trace of the
+         *  conversions in _trace.  Returns this segment. */
+        @Override
+        public Segment call() {
+            Machine mach = _machines.get();
+            if (_verbose) {
+                mach = mach.copy(new PrintTracer(new PrintStream(_trace)));
+            }
+            try {
+                setUp(mach, _setting);
+                for (int k = 0; k < _lines.size(); k++) {
+                    for (int i = 0; i < _spaces.get(k); i++) {
+                        _result.append(System.lineSeparator());
+                    }
+                    char[] line = _lines.get(k).toCharArray();
+                    char[] converted =
+                        new char[line.length + line.length / GROUP + 1];
+                    int n = mach.convertLine(line, 0, line.length,
+                                             converted, 0, GROUP);
+                    if (n < 0) {
+                        throw new EnigmaException("Message contains "
+                            + "characters outside of the alphabet!");
+                    }
+                    _result.append(converted, 0, n)
+                        .append(System.lineSeparator());
+                }
+            } catch (RuntimeException excp) {
+                _error = excp;
+            }
+            return this;
+        }
+
+        /** My settings line. */
+        private final String _setting;
+
+        /** My message lines. */
+        private final ArrayList<String> _lines = new ArrayList<>();
+
+        /** Number of blank lines before each of _lines. */
+        private final ArrayList<Integer> _spaces = new ArrayList<>();
+
+        /** My output. */
+        private final StringBuilder _result = new StringBuilder();
+
+        /** The trace of my conversions, printed with my output so that
+         *  the traces of segments converted at once do not mix. */
+        private final ByteArrayOutputStream _trace =
+            new ByteArrayOutputStream();
+
+        /** The error that stopped my conversion, or null. */
+        private RuntimeException _error;
+    }
+
+    /** Add MSG[0 .. N-1], a message line containing no blanks that follows
+     *  SPACE blank lines, to the lines waiting to be converted by M in
+     *  parallel. */
+    private void append(Machine M, char[] msg, int n, int space) {
+        if (_pendingLines == _pendingLengths.length) {
+            _pendingLengths = Arrays.copyOf(_pendingLengths,
+                                            _pendingLines * 2);
+            _pendingSpaces = Arrays.copyOf(_pendingSpaces, _pendingLines * 2);
+        }
+        if (_pendingChars + n > _pending.length) {
+            _pending = Arrays.copyOf(_pending,
+                Math.max(_pending.length * 2, _pendingChars + n));
+        }
+        System.arraycopy(msg, 0, _pending, _pendingChars, n);
+        _pendingChars += n;
+        _pendingLengths[_pendingLines] = n;
+        _pendingSpaces[_pendingLines] = space;
+        _pendingLines += 1;
+        if (_pendingChars >= PENDING_LIMIT) {
+            flush(M);
+        }
+    }
+
+    /** Convert the lines waiting to be converted, using M, and print
+     *  them. */
+    private void flush(Machine M) {
+        if (_pendingLines == 0) {
+            return;
+        }
+        M.convert(_pending, 0, _pendingChars, _pending, 0,
+                  ForkJoinPool.commonPool());
+        int start = 0;
+        for (int k = 0; k < _pendingLines; k++) {
+            for (int i = 0; i < _pendingSpaces[k]; i++) {
+                _output.println();
+            }
+            _output.printGroups(_pending, start, _pendingLengths[k]);
+            start += _pendingLengths[k];
         }
+        _pendingLines = 0;
+        _pendingChars = 0;
     }
 
     /** Return an Enigma machine configured from the contents of configuration
      *  file _config. */
     private Machine readConfig() {
-        Collection<Rotor> therotors = new ArrayList<>();
-        try {
-            _alphabet = new Alphabet(_config.next());
-            int rotorcount = _config.nextInt();
-            int pawlcount = _config.nextInt();
-            _config.nextLine();
-            while (_config.hasNextLine()) {
-                String line = _config.nextLine();
-                if (!line.isBlank()) {
-                    therotors.add(readRotor(line));
+        if (_snapshot != null) {
+            _alphabet = _snapshot.alphabet();
+            return newMachine(_snapshot.numRotors(), _snapshot.pawls(),
+                              _snapshot.rotors());
+        }
+        RotorCatalog therotors = new RotorCatalog();
+        String[] header = new String[3];
+        String rest = "";
+        for (int k = 0; k < header.length; k++) {
+            String[] tokens = rest.trim().split("\\s+", 2);
+            while (tokens[0].isEmpty()) {
+                if (!_config.hasNextLine()) {
+                    throw error("configuration file truncated");
                 }
+                _config.nextLine();
+                tokens = _config.line().trim().split("\\s+", 2);
             }
-            return new Machine(_alphabet, rotorcount, pawlcount, therotors);
-        } catch (NoSuchElementException excp) {
+            header[k] = tokens[0];
+            rest = tokens.length > 1 ? tokens[1] : "";
+        }
+        _alphabet = new Alphabet(header[0]);
+        int rotorcount;
+        int pawlcount;
+        try {
+            rotorcount = Integer.parseInt(header[1]);
+            pawlcount = Integer.parseInt(header[2]);
+        } catch (NumberFormatException excp) {
             throw error("configuration file truncated");
         }
+        StringBuilder description = new StringBuilder();
+        while (_config.hasNextLine()) {
+            _config.nextLine();
+            String line = _config.line().trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (description.length() > 0 && !line.startsWith("(")) {
+                addRotor(therotors, description.toString());
+                description.setLength(0);
+            }
+            description.append(line).append(' ');
+        }
+        if (description.length() > 0) {
+            addRotor(therotors, description.toString());
+        }
+        _config.close();
+        if (_writeSnapshot
+            && !ConfigSnapshot.write(_configName, _alphabet, rotorcount,
+                                     pawlcount, therotors)) {
+            System.err.printf("Warning: could not write %s%n",
+                              ConfigSnapshot.snapshotName(_configName));
+        }
+        return newMachine(rotorcount, pawlcount, therotors);
+    }
+
+    /** Return a machine with alphabet _alphabet, NUMROTORS rotor slots,
+     *  PAWLS pawls, and the rotors in ROTORS available, tracing if
+     *  --verbose was given. */
+    private Machine newMachine(int numRotors, int pawls,
+                               RotorCatalog rotors) {
+        return new Machine(_alphabet, numRotors, pawls, rotors,
+                           _verbose ? new PrintTracer(System.err)
+                           : Tracer.NONE);
     }
 
-    /** Return a rotor, reading its description from _config.
-     * @param line *read of _config.nextLine()s*
-     */
+    /** Add the rotor described by DESCRIPTION, a line of a configuration
+     *  file together with any continuation lines of its cycles, to
+     *  ROTORS.  The description is checked now, but the rotor is built
+     *  only when a setting first uses it. */
+    private void addRotor(RotorCatalog rotors, String description) {
+        String[] words = rotorWords(description);
+        rotors.add(words[0], () -> readRotor(description));
+    }
+
+    /** Return the words of the rotor description LINE: its name, its type
+     *  and notches, and its cycles. */
+    private String[] rotorWords(String line) {
+        String[] rotorlist = line.trim().split("\\s+");
+        if (rotorlist.length < 2 || rotorlist[1].isEmpty()) {
+            throw error("bad rotor description");
+        }
+        return rotorlist;
+    }
+
+    /** Return a rotor described by LINE, together with any continuation
+     *  lines of its cycles. */
     Rotor readRotor(String line) {
         try {
-            String rotorline = line;
-            String [] rotorlist = rotorline.split("\\s+");
-            if (rotorlist[0].isEmpty()) {
-                String[] rotorlst = new String[rotorlist.length - 1];
-                System.arraycopy(rotorlist, 1, rotorlst,
-                        0, rotorlist.length - 1);
-                rotorlist = rotorlst;
-            }
+            String [] rotorlist = rotorWords(line);
             String name = rotorlist[0];
             String type = rotorlist[1].substring(0, 1);
             String notchesofthisrotor = rotorlist[1].substring(1);
@@ -185,14 +525,6 @@ public final class Main {
                 cycles += rotorlist[i] + " ";
             }
 
-
-            if (_config.hasNext("\\([a-zA-Z._]+\\)")) {
-                String rest = _config.nextLine();
-
-                cycles += rest;
-            }
-
-
             if (type.equals("M")) {
                 return new MovingRotor(name, new Permutation(cycles, _alphabet),
                         notchesofthisrotor);
@@ -201,7 +533,7 @@ public final class Main {
             }
 
             return new Reflector(name, new Permutation(cycles, _alphabet));
-        } catch (NoSuchElementException excp) {
+        } catch (IndexOutOfBoundsException excp) {
             throw error("bad rotor description");
         }
     }
@@ -209,6 +541,14 @@ public final class Main {
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
     private void setUp(Machine M, String settings) {
+        Machine.Setting known;
+        synchronized (_setups) {
+            known = _setups.get(settings);
+        }
+        if (known != null) {
+            M.apply(known);
+            return;
+        }
         String[] sEttings = settings.split(" ");
         if (sEttings.length < M.numRotors() + 2) {
             throw new EnigmaException("Wrong number of arguments in setting!");
@@ -238,40 +578,106 @@ public final class Main {
             cycles += sEttings[i] + " ";
         }
         M.setPlugboard(new Permutation(cycles, _alphabet));
-    }
-
-    /** Return true iff verbose option specified. */
-    static boolean verbose() {
-        return _verbose;
-    }
-
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        _output.print(msg.charAt(0));
-        for (int i = 1; i < msg.length(); i++) {
-            if (i % 5 != 0) {
-                _output.print(msg.charAt(i));
-            } else {
-                _output.print(" ");
-                _output.print(msg.charAt(i));
+        known = M.setting();
+        synchronized (_setups) {
+            _setups.put(settings, known);
+            if (_setups.size() > SETUP_CACHE_SIZE) {
+                _setups.remove(_setups.keySet().iterator().next());
             }
         }
-        _output.println();
     }
 
+    /** Number of characters in a group of output. */
+    private static final int GROUP = OutputWriter.GROUP;
+
+    /** Largest number of lines allowed in a batch by --batch. */
+    private static final int MAX_BATCH = 1 << 20;
+
+    /** Number of settings lines whose settings are kept in _setups. */
+    private static final int SETUP_CACHE_SIZE = 64;
+
+    /** The machine settings of recently used settings lines, least
+     *  recently used first. */
+    private final LinkedHashMap<String, Machine.Setting> _setups =
+        new LinkedHashMap<>(16, 0.75f, true);
+
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
     /** Source of input messages. */
-    private Scanner _input;
+    private LineReader _input;
+
+    /** Source of machine configuration, unless it comes from
+     *  _snapshot. */
+    private LineReader _config;
+
+    /** Name of the configuration file. */
+    private String _configName;
 
-    /** Source of machine configuration. */
-    private Scanner _config;
+    /** Up-to-date compiled snapshot of the configuration, or null. */
+    private ConfigSnapshot _snapshot;
+
+    /** The current message line of _input, without its blanks, or its
+     *  conversion in groups. */
+    private char[] _message = new char[1 << 8];
 
     /** File for encoded/decoded messages. */
-    private PrintStream _output;
+    private OutputWriter _output;
 
     /** True if --verbose specified. */
     private static boolean _verbose;
+
+    /** True if --parallel specified. */
+    private static boolean _parallel;
+
+    /** True if --segments specified. */
+    private static boolean _segmented;
+
+    /** True if --snapshot specified: a configuration read as text is
+     *  then compiled into a snapshot for later runs. */
+    private static boolean _writeSnapshot;
+
+    /** True if --pipeline specified, and neither --parallel nor
+     *  --segments. */
+    private static boolean _pipelined;
+
+    /** Number of lines in each batch passed between the stages of
+     *  _pipeline, as given by --batch. */
+    private static int _batchSize = 1024;
+
+    /** Reads, converts and writes lines concurrently when _pipelined,
+     *  from the first settings line on; otherwise null. */
+    private Pipeline _pipeline;
+
+    /** Number of characters in collected segments at which they are
+     *  converted. */
+    private static final int SEGMENT_LIMIT = 1 << 24;
+
+    /** Segments of the input waiting to be converted. */
+    private final ArrayList<Segment> _segments = new ArrayList<>();
+
+    /** Number of message characters in _segments. */
+    private int _segmentChars;
+
+    /** The machine of each thread converting segments. */
+    private ThreadLocal<Machine> _machines;
+
+    /** Number of waiting characters at which they are converted. */
+    private static final int PENDING_LIMIT = 1 << 24;
+
+    /** Message lines waiting to be converted in parallel, without their
+     *  blanks. */
+    private char[] _pending = new char[1 << 12];
+
+    /** Number of characters in _pending. */
+    private int _pendingChars;
+
+    /** Number of lines in _pending. */
+    private int _pendingLines;
+
+    /** Length of each line in _pending. */
+    private int[] _pendingLengths = new int[16];
+
+    /** Number of blank lines preceding each line in _pending. */
+    private int[] _pendingSpaces = new int[16];
 }
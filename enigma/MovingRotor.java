@@ -11,29 +11,44 @@ class MovingRotor extends Rotor {
      *  alphabet).
      */
     MovingRotor(String name, Permutation perm, String notches) {
-        super(name, perm);
-        _notches = notches;
+        super(new RotorSpec(name, perm, notches), new int[1], 0);
+    }
+
+    /** A moving rotor described by SPEC, initially at setting 0. */
+    MovingRotor(RotorSpec spec) {
+        this(spec, new int[1], 0);
+    }
+
+    /** A moving rotor described by SPEC whose setting is
+     *  SETTINGS[SLOT]. */
+    private MovingRotor(RotorSpec spec, int[] settings, int slot) {
+        super(spec, settings, slot);
+    }
+
+    @Override
+    MovingRotor bind(int[] settings, int slot) {
+        settings[slot] = setting();
+        return new MovingRotor(spec(), settings, slot);
     }
 
     @Override
     void advance() {
-        set(permutation().wrap(_setting + 1));
+        set(setting() + 1);
     }
 
     @Override
     String notches() {
-        return _notches;
+        return spec().notches();
     }
 
     @Override
     boolean atNotch() {
+        return spec().notchAt(setting());
+    }
 
-        for (int i = 0; i < notches().length(); i++) {
-            if (alphabet().toInt(notches().charAt(i)) == setting()) {
-                return true;
-            }
-        }
-        return false;
+    @Override
+    boolean notchAt(int posn) {
+        return spec().notchAt(posn);
     }
 
     @Override
@@ -41,7 +56,4 @@ class MovingRotor extends Rotor {
         return true;
     }
 
-    /** Notches. */
-    private String _notches;
-
 }
@@ -0,0 +1,135 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A table of the log probabilities of the sequences of N characters
+ *  (n-grams) of an alphabet, estimated from a sample of text, for scoring
+ *  candidate decryptions.  An n-gram is numbered by reading its
+ *  characters' alphabet indices as the digits of a number in base the
+ *  size of the alphabet, the first most significant, so that the number
+ *  of the next n-gram of a text follows from the last with one multiply
+ *  and add.
+ *  @author Abhiroop Mathur
+ */
+class NgramModel {
+
+    /** A model of the N-grams of ALPHABET in TEXT.  Characters of TEXT
+     *  outside ALPHABET, after converting letters to upper case if they
+     *  are not in ALPHABET themselves, separate n-grams. */
+    NgramModel(Alphabet alphabet, int n, CharSequence text) {
+        if (n < 1) {
+            throw error("n-grams must have at least one character");
+        }
+        _size = alphabet.size();
+        _n = n;
+        long count = 1;
+        for (int i = 0; i < n; i++) {
+            count *= _size;
+            if (count > MAX_NGRAMS) {
+                throw error("too many %d-grams to tabulate", n);
+            }
+        }
+        _high = (int) (count / _size);
+        int[] counts = new int[(int) count];
+        long total = 0;
+        int ngram = 0;
+        int length = 0;
+        for (int j = 0; j < text.length(); j++) {
+            int c = alphabet.toInt(text.charAt(j));
+            if (c < 0) {
+                c = alphabet.toInt(Character.toUpperCase(text.charAt(j)));
+            }
+            if (c < 0) {
+                length = 0;
+                continue;
+            }
+            ngram = next(ngram, c);
+            length += 1;
+            if (length >= n) {
+                counts[ngram] += 1;
+                total += 1;
+            }
+        }
+        _scores = new int[(int) count];
+        for (int k = 0; k < count; k++) {
+            _scores[k] = (int) Math.round(SCALE * Math.log(
+                (counts[k] + 1.0) / (total + count)));
+        }
+    }
+
+    /** Return a model of the N-grams of ALPHABET in the file named
+     *  NAME. */
+    static NgramModel read(Alphabet alphabet, int n, String name) {
+        LineReader input = LineReader.open(name);
+        StringBuilder text = new StringBuilder();
+        while (input.hasNextLine()) {
+            input.nextLine();
+            text.append(input.line()).append('\n');
+        }
+        input.close();
+        return new NgramModel(alphabet, n, text);
+    }
+
+    /** Return the number of characters in each n-gram. */
+    int n() {
+        return _n;
+    }
+
+    /** Return the size of my alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the number of the n-gram following n-gram NGRAM with the
+     *  character C. */
+    int next(int ngram, int c) {
+        return ngram % _high * _size + c;
+    }
+
+    /** Return the part of the number of an n-gram due to its first
+     *  character being C.  The n-gram following NGRAM, whose first
+     *  character is C, with character D is (NGRAM - lead(C)) * size() +
+     *  D, which avoids the division made by next. */
+    int lead(int c) {
+        return c * _high;
+    }
+
+    /** Return the score of n-gram NGRAM: its natural log probability
+     *  times SCALE, rounded. */
+    int score(int ngram) {
+        return _scores[ngram];
+    }
+
+    /** Return the sum of the scores of the n-grams of TEXT[0 .. LEN-1],
+     *  which are alphabet indices. */
+    long score(int[] text, int len) {
+        long result = 0;
+        int ngram = 0;
+        for (int j = 0; j < len; j++) {
+            ngram = next(ngram, text[j]);
+            if (j >= _n - 1) {
+                result += _scores[ngram];
+            }
+        }
+        return result;
+    }
+
+    /** Units of score per unit of natural log probability. */
+    static final int SCALE = 1000;
+
+    /** Largest number of n-grams tabulated. */
+    private static final long MAX_NGRAMS = 1 << 24;
+
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** Number of characters in each n-gram. */
+    private final int _n;
+
+    /** Number of (N-1)-grams. */
+    private final int _high;
+
+    /** Score of each n-gram. */
+    private final int[] _scores;
+
+}
@@ -0,0 +1,272 @@
+package enigma;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.*;
+
+/** A destination for lines of output written through a FileChannel.
+ *  Characters are encoded straight into a byte buffer, which is written
+ *  in large chunks; a named regular file is instead memory-mapped and
+ *  written in place.  Nothing is written until the buffer fills or the
+ *  writer is closed.
+ *
+ *  Mapping a window of a file extends the file to the end of the window,
+ *  so until it is closed a mapped file ends in up to a window of zeros.
+ *  Windows are kept small, and if the JVM exits without the writer
+ *  having been closed, a shutdown hook cuts the file back to what was
+ *  written; only a JVM killed outright leaves the zeros behind.
+ *  @author Abhiroop Mathur
+ */
+class OutputWriter {
+
+    /** A writer to CHANNEL, which is memory-mapped if MAPPED, and closed
+     *  with me if OWNED. */
+    OutputWriter(FileChannel channel, boolean mapped, boolean owned) {
+        _channel = channel;
+        _mapped = mapped;
+        _owned = owned;
+        _encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        if (mapped) {
+            _buffer = ByteBuffer.allocate(0);
+            _truncator = new Thread(this::truncate);
+            Runtime.getRuntime().addShutdownHook(_truncator);
+        } else {
+            _truncator = null;
+            _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    }
+
+    /** Return a writer to the file named NAME, replacing its contents.
+     *  The file is memory-mapped only if it is, or will be, a regular
+     *  file: devices and pipes, such as /dev/null and /dev/stdout, are
+     *  written like the standard output. */
+    static OutputWriter open(String name) {
+        try {
+            Path path = Paths.get(name);
+            boolean regular =
+                Files.isRegularFile(path) || !Files.exists(path);
+            FileChannel channel;
+            if (regular) {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                                           StandardOpenOption.TRUNCATE_EXISTING,
+                                           StandardOpenOption.READ,
+                                           StandardOpenOption.WRITE);
+            } else {
+                channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            }
+            return new OutputWriter(channel, regular, true);
+        } catch (IOException | RuntimeException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a writer to the standard output, which closing the
+     *  writer flushes but does not close. */
+    static OutputWriter stdout() {
+        return new OutputWriter(new FileOutputStream(FileDescriptor.out)
+                                .getChannel(), false, false);
+    }
+
+    /** Write the N characters of MSG starting at MSG[START] as a line, in
+     *  groups of five (except that the last group may have fewer
+     *  letters). */
+    void printGroups(char[] msg, int start, int n) {
+        for (int i = 0; i < n; i += GROUP) {
+            if (i > 0) {
+                put(' ');
+            }
+            int end = start + Math.min(n, i + GROUP);
+            for (int k = start + i; k < end; k++) {
+                put(msg[k]);
+            }
+        }
+        println();
+    }
+
+    /** Write the N characters of LINE starting at LINE[START] as a
+     *  line. */
+    void printLine(char[] line, int start, int n) {
+        print(line, start, n);
+        println();
+    }
+
+    /** Write the N characters of CHARS starting at CHARS[START]. */
+    void print(char[] chars, int start, int n) {
+        int end = start + n;
+        for (int k = start; k < end; k++) {
+            char ch = chars[k];
+            if (ch < ASCII_LIMIT && _buffer.hasRemaining()) {
+                _buffer.put((byte) ch);
+            } else {
+                put(ch);
+            }
+        }
+    }
+
+    /** Write the characters of S. */
+    void print(CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            put(s.charAt(i));
+        }
+    }
+
+    /** End the current line. */
+    void println() {
+        for (byte b : SEPARATOR) {
+            if (!_buffer.hasRemaining()) {
+                drain();
+            }
+            _buffer.put(b);
+        }
+    }
+
+    /** Write out everything written so far and, if I own it, close my
+     *  channel. */
+    void close() {
+        try {
+            if (_mapped) {
+                _channel.truncate(_base + _buffer.position());
+                try {
+                    Runtime.getRuntime().removeShutdownHook(_truncator);
+                } catch (IllegalStateException excp) {
+                    /* Already shutting down: the hook is harmless. */
+                }
+            } else {
+                write();
+            }
+            if (_owned) {
+                _channel.close();
+            }
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
+
+    /** Cut a mapped file back to the bytes written so far, as the JVM
+     *  exits without my having been closed. */
+    private void truncate() {
+        try {
+            if (_channel.isOpen()) {
+                _channel.truncate(_base + _buffer.position());
+            }
+        } catch (IOException excp) {
+            /* Nothing more can be done while exiting. */
+        }
+    }
+
+    /** Write the character CH. */
+    private void put(char ch) {
+        if (ch < ASCII_LIMIT) {
+            if (!_buffer.hasRemaining()) {
+                drain();
+            }
+            _buffer.put((byte) ch);
+            return;
+        }
+        _char[0] = ch;
+        ByteBuffer bytes = _encoded.clear();
+        _encoder.reset();
+        _encoder.encode(CharBuffer.wrap(_char), bytes, true);
+        _encoder.flush(bytes);
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            if (!_buffer.hasRemaining()) {
+                drain();
+            }
+            _buffer.put(bytes.get());
+        }
+    }
+
+    /** Make room in _buffer, either by writing it out or by mapping the
+     *  next window of the file. */
+    private void drain() {
+        if (!_mapped) {
+            write();
+            return;
+        }
+        try {
+            _base += _buffer.position();
+            _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, _base,
+                                   MAP_WINDOW);
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
+
+    /** Write the contents of _buffer to an unmapped _channel and empty
+     *  it. */
+    private void write() {
+        try {
+            _buffer.flip();
+            while (_buffer.hasRemaining()) {
+                _channel.write(_buffer);
+            }
+            _buffer.clear();
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
+
+    /** Number of characters in a group. */
+    static final int GROUP = 5;
+
+    /** Characters below this are written as single bytes. */
+    private static final int ASCII_LIMIT = 0x80;
+
+    /** The bytes that end a line. */
+    private static final byte[] SEPARATOR =
+        System.lineSeparator().getBytes(Charset.defaultCharset());
+
+    /** Size of the buffer used for channels that are not mapped. */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** Number of bytes of a file mapped at once, and so the most by
+     *  which a mapped file runs ahead of what has been written. */
+    private static final long MAP_WINDOW = 1L << 22;
+
+    /** My destination. */
+    private final FileChannel _channel;
+
+    /** True iff _channel is memory-mapped. */
+    private final boolean _mapped;
+
+    /** True iff I close _channel when I am closed. */
+    private final boolean _owned;
+
+    /** The shutdown hook cutting a mapped file back to what has been
+     *  written, or null if _channel is not mapped. */
+    private final Thread _truncator;
+
+    /** Encoder for characters that are not ASCII. */
+    private final CharsetEncoder _encoder;
+
+    /** Holds a character being encoded by _encoder. */
+    private final char[] _char = new char[1];
+
+    /** Holds the encoding of _char. */
+    private final ByteBuffer _encoded = ByteBuffer.allocate(16);
+
+    /** Bytes waiting to be written or, if _mapped, the window of the file
+     *  starting at offset _base. */
+    private ByteBuffer _buffer;
+
+    /** Offset in _channel of the start of a mapped _buffer. */
+    private long _base;
+
+}
@@ -0,0 +1,107 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/** The suite of all JUnit tests for the OutputWriter class.
+ *  @author Abhiroop Mathur
+ */
+public class OutputWriterTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** A message line. */
+    private static final char[] MSG = "HELLOWORLDABC".toCharArray();
+
+    /** Write the test output to OUT, COPIES times over, and close OUT. */
+    private static void write(OutputWriter out, int copies) {
+        for (int k = 0; k < copies; k++) {
+            out.printGroups(MSG, 0, MSG.length);
+            out.printLine(MSG, 2, 3);
+        }
+        out.close();
+    }
+
+    /** Return the test output written COPIES times over. */
+    private static String expected(int copies) {
+        String nl = System.lineSeparator();
+        StringBuilder result = new StringBuilder();
+        for (int k = 0; k < copies; k++) {
+            result.append("HELLO WORLD ABC").append(nl)
+                .append("LLO").append(nl);
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void testRegularFile() throws IOException {
+        File file = File.createTempFile("enigma", ".out");
+        try {
+            int copies = 300000;
+            write(OutputWriter.open(file.getPath()), copies);
+            assertEquals(expected(copies),
+                         new String(Files.readAllBytes(file.toPath())));
+            write(OutputWriter.open(file.getPath()), 1);
+            assertEquals(expected(1),
+                         new String(Files.readAllBytes(file.toPath())));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDevNull() {
+        assumeTrue(new File("/dev/null").exists());
+        write(OutputWriter.open("/dev/null"), 1000);
+    }
+
+    @Test
+    public void testFifo() throws Exception {
+        File dir = Files.createTempDirectory("enigma").toFile();
+        File fifo = new File(dir, "fifo");
+        try {
+            Process mkfifo;
+            try {
+                mkfifo = new ProcessBuilder("mkfifo", fifo.getPath())
+                    .start();
+            } catch (IOException excp) {
+                mkfifo = null;
+            }
+            assumeTrue(mkfifo != null && mkfifo.waitFor() == 0);
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            Thread reader = new Thread(() -> {
+                try (InputStream in = new FileInputStream(fifo)) {
+                    in.transferTo(read);
+                } catch (IOException excp) {
+                    throw new RuntimeException(excp);
+                }
+            });
+            reader.start();
+            write(OutputWriter.open(fifo.getPath()), 1000);
+            reader.join();
+            assertEquals(expected(1000), read.toString());
+        } finally {
+            fifo.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testStdoutStaysOpen() {
+        OutputWriter.stdout().close();
+        assertTrue(FileDescriptor.out.valid());
+    }
+
+}
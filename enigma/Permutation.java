@@ -1,6 +1,7 @@
 package enigma;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
  *  to the characters of an alphabet.
@@ -18,6 +19,13 @@ class Permutation {
 
         _cycles = new ArrayList<>();
 
+        _forward = new int[alphabet.size()];
+        _inverse = new int[alphabet.size()];
+        for (int i = 0; i < _forward.length; i++) {
+            _forward[i] = i;
+            _inverse[i] = i;
+        }
+
         cycles = cycles.replace("(", " ").replace(")", " ");
 
         String[] tempcycle = cycles.split("\\s+");
@@ -25,6 +33,20 @@ class Permutation {
         for (String i: tempcycle) {
 
             _cycles.add(i);
+            compile(i);
+        }
+    }
+
+    /** A permutation of ALPHABET mapping each index I to FORWARD[I].
+     *  FORWARD must be a permutation of the indices and must not be
+     *  changed afterwards. */
+    Permutation(int[] forward, Alphabet alphabet) {
+        _alphabet = alphabet;
+        _cycles = new ArrayList<>();
+        _forward = forward;
+        _inverse = new int[forward.length];
+        for (int i = 0; i < forward.length; i++) {
+            _inverse[forward[i]] = i;
         }
     }
 
@@ -34,6 +56,32 @@ class Permutation {
         cycle = cycle.replace("(", "").replace(")", "");
 
         _cycles.add(cycle);
+        compile(cycle);
+    }
+
+    /** Record the cycle c0->c1->...->cm->c0 given by CYCLE in my forward
+     *  and inverse tables.  Characters outside my alphabet have no index,
+     *  so they are left out of the cycle. */
+    private void compile(String cycle) {
+        int first = -1;
+        int prev = -1;
+        for (int i = 0; i < cycle.length(); i++) {
+            int next = _alphabet.toInt(cycle.charAt(i));
+            if (next < 0) {
+                continue;
+            }
+            if (first < 0) {
+                first = next;
+            } else {
+                _forward[prev] = next;
+                _inverse[next] = prev;
+            }
+            prev = next;
+        }
+        if (first >= 0) {
+            _forward[prev] = first;
+            _inverse[first] = prev;
+        }
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -53,52 +101,32 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        p = wrap(p);
-
-        char charat = _alphabet.toChar(p);
-
-        return _alphabet.toInt(permute(charat));
-
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        c = wrap(c);
-
-        char charat = _alphabet.toChar(c);
-
-        return _alphabet.toInt(invert(charat));
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        for (String i : _cycles) {
-            if (i.contains((Character.toString(p)))) {
-                if (i.indexOf(p) + 1 == i.length()) {
-
-                    return i.charAt(0);
-
-                }
-
-                return i.charAt(i.indexOf(Character.toString(p)) + 1);
-            }
+        int index = _alphabet.toInt(p);
+        if (index < 0) {
+            return p;
         }
-        return p;
+        return _alphabet.toChar(_forward[index]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        for (String i : _cycles) {
-            if (i.contains((Character.toString(c)))) {
-                if (i.indexOf(c) == 0) {
-                    return i.charAt(i.length() - 1);
-                }
-                return i.charAt(i.indexOf(Character.toString(c)) - 1);
-            }
+        int index = _alphabet.toInt(c);
+        if (index < 0) {
+            return c;
         }
-        return c;
+        return _alphabet.toChar(_inverse[index]);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -109,28 +137,29 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        for (String i : _cycles) {
-            if (i.length() == 1) {
+        for (int i = 0; i < _forward.length; i++) {
+            if (_forward[i] == i) {
                 return false;
             }
-
         }
+        return true;
+    }
 
-        ArrayList<String> copy = (ArrayList<String>) _alphabet._chars.clone();
-        for (String j : _cycles) {
-            for (int k = 0; k < j.length(); k++) {
-                if (copy.contains(Character.toString(j.charAt(k)))) {
-                    copy.remove(Character.toString(j.charAt(k)));
-                }
-            }
+    /** Return true iff OBJ is a Permutation of the same alphabet that
+     *  maps every character as I do. */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Permutation)) {
+            return false;
         }
+        Permutation other = (Permutation) obj;
+        return _alphabet == other._alphabet
+            && Arrays.equals(_forward, other._forward);
+    }
 
-        System.out.println(copy.size());
-        System.out.println(_alphabet.size());
-        if (copy.size() == 0) {
-            return true;
-        }
-        return false;
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(_forward);
     }
 
     /** Alphabet of this permutation. */
@@ -138,4 +167,10 @@ class Permutation {
 
     /** Collection of cycles that determine the permutation. */
     protected ArrayList<String> _cycles;
+
+    /** Image of each index under this permutation. */
+    private final int[] _forward;
+
+    /** Image of each index under the inverse of this permutation. */
+    private final int[] _inverse;
 }
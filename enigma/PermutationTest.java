@@ -95,6 +95,26 @@ public class PermutationTest {
         assertEquals(2, perm1.invert(3));
     }
 
+    @Test
+    public void navalTablesTest() {
+        for (String name : NAVALA_MAP.keySet()) {
+            perm = new Permutation(NAVALA.get(name), UPPER);
+            checkPerm(name, UPPER_STRING, NAVALA_MAP.get(name));
+        }
+    }
+
+    @Test
+    public void addCycleTablesTest() {
+        perm = new Permutation("(AB)", UPPER);
+        perm.addCycle("(CDE)");
+        assertEquals('D', perm.permute('C'));
+        assertEquals('C', perm.invert('D'));
+        assertEquals(2, perm.permute(4));
+        assertEquals(4, perm.invert(2));
+        assertEquals(0, perm.permute(27));
+        assertEquals(25, perm.invert(-1));
+    }
+
     @Test
     public void derangementTest() {
         assertTrue(perm1.derangement());
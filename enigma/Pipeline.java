@@ -0,0 +1,312 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+import static enigma.EnigmaException.*;
+
+/** Conversion of input lines in three stages that run concurrently: the
+ *  thread that reads the input hands settings and message lines to a
+ *  pipeline in batches; an encryption thread applies the settings lines
+ *  and converts the message lines into grouped output; and an output
+ *  thread writes that output.  Batches pass between the stages through
+ *  BatchRings and are then recycled, so that at most BATCHES batches are
+ *  in flight and a slow stage holds back the stages before it.
+ *
+ *  The output, and the error (if any) reported by close(), are those of
+ *  converting the lines one after another on a single thread.
+ *  @author Abhiroop Mathur
+ */
+class Pipeline {
+
+    /** A pipeline that converts lines with MACHINE, applying settings
+     *  lines to it with SETUP, and writes the results to OUTPUT.  Lines are
+     *  passed between stages in batches of BATCHSIZE lines. */
+    Pipeline(Machine machine, BiConsumer<Machine, String> setUp,
+             OutputWriter output, int batchSize) {
+        if (batchSize <= 0) {
+            throw error("batch size must be positive");
+        }
+        _machine = machine;
+        _setUp = setUp;
+        _output = output;
+        _batchSize = batchSize;
+        for (int k = 0; k < BATCHES; k++) {
+            _free.put(new Batch(batchSize));
+        }
+        _batch = _free.take();
+        _encryptor = new Thread(this::encrypt, "enigma-encrypt");
+        _writer = new Thread(this::write, "enigma-write");
+        _encryptor.setDaemon(true);
+        _writer.setDaemon(true);
+        _encryptor.start();
+        _writer.start();
+    }
+
+    /** Add the settings line LINE[0 .. LENGTH-1]. */
+    void setting(char[] line, int length) {
+        add(line, length, -1);
+    }
+
+    /** Add the message line LINE[0 .. LENGTH-1], which follows SPACE blank
+     *  lines. */
+    void message(char[] line, int length, int space) {
+        add(line, length, space);
+    }
+
+    /** Finish converting and writing the lines added so far, followed, if
+     *  ERROR is not null, by the error ERROR, and stop my threads.  Throws
+     *  the first error in the converted input, if any. */
+    void close(RuntimeException error) {
+        _batch._error = error;
+        _batch._last = true;
+        _toEncryptor.put(_batch);
+        _batch = null;
+        try {
+            _encryptor.join();
+            _writer.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted while writing output");
+        }
+        if (_failure instanceof Error) {
+            throw (Error) _failure;
+        } else if (_failure != null) {
+            throw (RuntimeException) _failure;
+        }
+    }
+
+    /** Add line LINE[0 .. LENGTH-1], which follows SPACE blank lines, or
+     *  is a settings line if SPACE is -1, to the current batch, passing the
+     *  batch on if it is full.  Once conversion has stopped at an error,
+     *  throws an exception instead, since no more input is needed. */
+    private void add(char[] line, int length, int space) {
+        if (_stopped) {
+            throw error("conversion stopped");
+        }
+        _batch.add(line, length, space);
+        if (_batch._count == _batchSize) {
+            _toEncryptor.put(_batch);
+            _batch = _free.take();
+            _batch.clear();
+        }
+    }
+
+    /** The body of the encryption thread: convert each batch from the
+     *  reading thread, and pass it to the output thread.  A batch whose
+     *  conversion fails carries the output of the lines before the error,
+     *  and the error in place of any it had.  After an error, batches are
+     *  passed on unconverted. */
+    private void encrypt() {
+        Batch batch;
+        do {
+            batch = _toEncryptor.take();
+            batch._outLength = 0;
+            if (!_stopped) {
+                try {
+                    convert(batch);
+                } catch (RuntimeException excp) {
+                    batch._error = excp;
+                } catch (Error excp) {
+                    batch._error = null;
+                    fail(excp);
+                }
+                _stopped = _failure != null || batch._error != null;
+            }
+            _toWriter.put(batch);
+        } while (!batch._last);
+    }
+
+    /** Convert the lines of BATCH into its output. */
+    private void convert(Batch batch) {
+        char[] in = batch._in;
+        int start = 0;
+        for (int k = 0; k < batch._count; k++) {
+            int length = batch._lengths[k];
+            int space = batch._spaces[k];
+            if (space < 0) {
+                _setUp.accept(_machine, new String(in, start, length));
+            } else {
+                batch.reserve(SEPARATOR.length * (space + 1)
+                              + length + length / OutputWriter.GROUP + 1);
+                char[] out = batch._out;
+                for (int i = 0; i < space; i++) {
+                    batch.newLine();
+                }
+                int n = _machine.convertLine(in, start, start + length,
+                                             out, batch._outLength,
+                                             OutputWriter.GROUP);
+                if (n < 0) {
+                    throw new EnigmaException("Message contains "
+                        + "characters outside of the alphabet!");
+                }
+                batch._outLength += n;
+                batch.newLine();
+            }
+            start += length;
+        }
+    }
+
+    /** The body of the output thread: write the output of each batch
+     *  from the encryption thread, and return the batch to the reading
+     *  thread.  Once an error has been found, write nothing more. */
+    private void write() {
+        Batch batch;
+        do {
+            batch = _toWriter.take();
+            if (_failure == null) {
+                try {
+                    _output.print(batch._out, 0, batch._outLength);
+                    if (batch._error != null) {
+                        fail(batch._error);
+                    }
+                } catch (RuntimeException | Error excp) {
+                    fail(excp);
+                }
+            }
+            if (!batch._last) {
+                _free.put(batch);
+            }
+        } while (!batch._last);
+    }
+
+    /** Record EXCP as the error that stopped conversion, unless one has
+     *  been recorded already. */
+    private synchronized void fail(Throwable excp) {
+        if (_failure == null) {
+            _failure = excp;
+        }
+    }
+
+    /** Lines of input on their way through the stages, and their
+     *  output. */
+    private static class Batch {
+
+        /** A batch of at most CAPACITY lines, with room for fewer to
+         *  begin with. */
+        Batch(int capacity) {
+            _lengths = new int[Math.min(capacity, INITIAL_LINES)];
+            _spaces = new int[_lengths.length];
+        }
+
+        /** Empty me. */
+        void clear() {
+            _count = 0;
+            _inLength = 0;
+            _outLength = 0;
+            _error = null;
+        }
+
+        /** Add line LINE[0 .. LENGTH-1], which follows SPACE blank lines
+         *  or is a settings line if SPACE is -1. */
+        void add(char[] line, int length, int space) {
+            if (_inLength + length > _in.length) {
+                _in = Arrays.copyOf(_in,
+                    Math.max(_in.length * 2, _inLength + length));
+            }
+            if (_count == _lengths.length) {
+                _lengths = Arrays.copyOf(_lengths, _count * 2);
+                _spaces = Arrays.copyOf(_spaces, _count * 2);
+            }
+            System.arraycopy(line, 0, _in, _inLength, length);
+            _inLength += length;
+            _lengths[_count] = length;
+            _spaces[_count] = space;
+            _count += 1;
+        }
+
+        /** Make room for N more characters of output. */
+        void reserve(int n) {
+            if (_outLength + n > _out.length) {
+                _out = Arrays.copyOf(_out,
+                    Math.max(_out.length * 2, _outLength + n));
+            }
+        }
+
+        /** End a line of output, for which there must be room. */
+        void newLine() {
+            for (char ch : SEPARATOR) {
+                _out[_outLength] = ch;
+                _outLength += 1;
+            }
+        }
+
+        /** The characters of my lines, one after another. */
+        private char[] _in = new char[1 << 12];
+
+        /** Number of characters in _in. */
+        private int _inLength;
+
+        /** The length of each line. */
+        private int[] _lengths;
+
+        /** The number of blank lines before each line, or -1 for a
+         *  settings line. */
+        private int[] _spaces;
+
+        /** Number of lines. */
+        private int _count;
+
+        /** My output. */
+        private char[] _out = new char[1 << 12];
+
+        /** Number of characters in _out. */
+        private int _outLength;
+
+        /** The error that follows my lines, or null. */
+        private RuntimeException _error;
+
+        /** True iff I am the last batch. */
+        private boolean _last;
+    }
+
+    /** Number of batches. */
+    private static final int BATCHES = 8;
+
+    /** Number of lines a batch has room for at first, growing as
+     *  needed. */
+    private static final int INITIAL_LINES = 1024;
+
+    /** The characters that end a line. */
+    private static final char[] SEPARATOR =
+        System.lineSeparator().toCharArray();
+
+    /** Converts my lines. */
+    private final Machine _machine;
+
+    /** Applies a settings line to _machine. */
+    private final BiConsumer<Machine, String> _setUp;
+
+    /** Where my output goes. */
+    private final OutputWriter _output;
+
+    /** Number of lines in a full batch. */
+    private final int _batchSize;
+
+    /** Batches from the reading thread to the encryption thread. */
+    private final BatchRing<Batch> _toEncryptor = new BatchRing<>(BATCHES);
+
+    /** Batches from the encryption thread to the output thread. */
+    private final BatchRing<Batch> _toWriter = new BatchRing<>(BATCHES);
+
+    /** Batches from the output thread back to the reading thread. */
+    private final BatchRing<Batch> _free = new BatchRing<>(BATCHES);
+
+    /** The batch being filled by the reading thread. */
+    private Batch _batch;
+
+    /** The encryption thread. */
+    private final Thread _encryptor;
+
+    /** The output thread. */
+    private final Thread _writer;
+
+    /** True once the encryption thread has stopped converting. */
+    private volatile boolean _stopped;
+
+    /** The first error in the converted input, once the output before it
+     *  has been written, or an error that stopped a thread; otherwise
+     *  null. */
+    private volatile Throwable _failure;
+
+}
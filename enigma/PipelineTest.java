@@ -0,0 +1,210 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiConsumer;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Pipeline and BatchRing classes.
+ *  @author Abhiroop Mathur
+ */
+public class PipelineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testBatchRing() throws InterruptedException {
+        BatchRing<Integer> ring = new BatchRing<>(4);
+        int count = 200000;
+        Thread producer = new Thread(() -> {
+            for (int k = 0; k < count; k++) {
+                ring.put(k);
+            }
+        });
+        producer.start();
+        for (int k = 0; k < count; k++) {
+            assertEquals(k, (int) ring.take());
+        }
+        producer.join();
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBatchRingCapacity() {
+        new BatchRing<Integer>(6);
+    }
+
+    @Test
+    public void testPipeline() throws IOException {
+        List<String> lines = lines(new Random(20), 300, -1);
+        for (int batch : new int[] { 1, 3, 7, 1024 }) {
+            assertEquals(sequential(lines), pipelined(lines, batch));
+        }
+    }
+
+    @Test
+    public void testPipelineError() throws IOException {
+        List<String> lines = lines(new Random(21), 40, 22);
+        String expected = sequential(lines);
+        assertTrue(expected.endsWith("ERROR"));
+        for (int batch : new int[] { 1, 4, 5, 64 }) {
+            assertEquals(expected, pipelined(lines, batch));
+        }
+    }
+
+    /** Settings lines used by the tests. */
+    private static final String[] SETTINGS = {
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "* B Beta I II III AAAA",
+        "* B Gamma IV V VI ZZZZ (AB)",
+    };
+
+    /** Return COUNT random input lines starting with a settings line,
+     *  the line at BAD (if BAD >= 0) holding a character outside the
+     *  alphabet, drawing from RANDOM. */
+    private static List<String> lines(Random random, int count, int bad) {
+        ArrayList<String> result = new ArrayList<>();
+        result.add(SETTINGS[0]);
+        for (int k = 1; k < count; k++) {
+            int kind = random.nextInt(10);
+            if (k == bad) {
+                result.add("ABC DEFa");
+            } else if (kind == 0) {
+                result.add(SETTINGS[random.nextInt(SETTINGS.length)]);
+            } else if (kind == 1) {
+                result.add("");
+            } else {
+                StringBuilder line = new StringBuilder();
+                int length = random.nextInt(40);
+                for (int i = 0; i < length; i++) {
+                    line.append(random.nextInt(6) == 0 ? ' '
+                                : (char) ('A' + random.nextInt(26)));
+                }
+                result.add(line.toString());
+            }
+        }
+        result.add("LAST");
+        return result;
+    }
+
+    /** Return a machine whose rotors are those of TestUtils.NAVALA. */
+    private static Machine machine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (String name : new String[] { "B", "Beta", "Gamma" }) {
+            Permutation perm = new Permutation(NAVALA.get(name), UPPER);
+            rotors.add(name.equals("B") ? new Reflector(name, perm)
+                       : new FixedRotor(name, perm));
+        }
+        String[] moving = { "I", "II", "III", "IV", "V", "VI" };
+        String[] notches = { "Q", "E", "V", "J", "Z", "ZM" };
+        for (int i = 0; i < moving.length; i++) {
+            rotors.add(new MovingRotor(moving[i],
+                                       new Permutation(NAVALA.get(moving[i]),
+                                                       UPPER),
+                                       notches[i]));
+        }
+        return new Machine(UPPER, 5, 3, rotors);
+    }
+
+    /** Applies a settings line to a machine. */
+    private static final BiConsumer<Machine, String> SET_UP = (mach, line) -> {
+        String[] words = line.split(" ");
+        String[] rotors = new String[mach.numRotors()];
+        System.arraycopy(words, 1, rotors, 0, rotors.length);
+        mach.insertRotors(rotors);
+        mach.setRotors(words[rotors.length + 1]);
+        StringBuilder cycles = new StringBuilder();
+        for (int i = rotors.length + 2; i < words.length; i++) {
+            cycles.append(words[i]).append(' ');
+        }
+        mach.setPlugboard(new Permutation(cycles.toString(), UPPER));
+    };
+
+    /** Return the output of converting LINES one after another, as Main
+     *  does, ending with "ERROR" if a line cannot be converted. */
+    private static String sequential(List<String> lines) {
+        String nl = System.lineSeparator();
+        Machine mach = machine();
+        StringBuilder result = new StringBuilder();
+        int space = 0;
+        for (String line : lines) {
+            if (line.startsWith("*")) {
+                SET_UP.accept(mach, line);
+                continue;
+            }
+            if (line.isEmpty()) {
+                space += 1;
+                continue;
+            }
+            for (; space > 0; space -= 1) {
+                result.append(nl);
+            }
+            String msg = line.replace(" ", "");
+            for (char ch : msg.toCharArray()) {
+                if (!UPPER.contains(ch)) {
+                    return result.append("ERROR").toString();
+                }
+            }
+            String converted = mach.convert(msg);
+            for (int i = 0; i < converted.length(); i += OutputWriter.GROUP) {
+                if (i > 0) {
+                    result.append(' ');
+                }
+                result.append(converted, i,
+                              Math.min(converted.length(),
+                                       i + OutputWriter.GROUP));
+            }
+            result.append(nl);
+        }
+        return result.toString();
+    }
+
+    /** Return the output of converting LINES through a Pipeline passing
+     *  BATCH lines at a time, ending with "ERROR" if close reports an
+     *  error. */
+    private static String pipelined(List<String> lines, int batch)
+        throws IOException {
+        File file = File.createTempFile("enigma", ".out");
+        try {
+            OutputWriter out = OutputWriter.open(file.getPath());
+            Pipeline pipeline = new Pipeline(machine(), SET_UP, out, batch);
+            String error = "";
+            try {
+                int space = 0;
+                for (String line : lines) {
+                    char[] chars = line.toCharArray();
+                    if (line.startsWith("*")) {
+                        pipeline.setting(chars, chars.length);
+                    } else if (line.isEmpty()) {
+                        space += 1;
+                    } else {
+                        pipeline.message(chars, chars.length, space);
+                        space = 0;
+                    }
+                }
+            } catch (EnigmaException excp) {
+                assertEquals("conversion stopped", excp.getMessage());
+            }
+            try {
+                pipeline.close(null);
+            } catch (EnigmaException excp) {
+                error = "ERROR";
+            }
+            out.close();
+            return new String(Files.readAllBytes(file.toPath())) + error;
+        } finally {
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,599 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+import static enigma.SearchSupport.*;
+
+/** A search for the plugboard of a machine whose rotors and their start
+ *  position are known, given only a ciphertext and a model of the n-grams
+ *  of the plaintext language.  Each of many restarts climbs from a random
+ *  plugboard: it repeatedly changes the plugboard a little and keeps the
+ *  change if the decryption then scores better by the model, or, while
+ *  the search is still hot (simulated annealing), sometimes even if it
+ *  scores worse.  It finishes by trying every change in turn until none
+ *  helps.  The restarts run in parallel on a fork/join pool, and the
+ *  best plugboard found by any of them wins.
+ *
+ *  A change connects two characters A and B.  If they were plugged to
+ *  each other, it unplugs them; otherwise it plugs A to B and plugs
+ *  their former partners, if both had one, to each other.  The plugboard
+ *  is kept as an array mapping each character to its partner, changed
+ *  in place and restored in place when a change is rejected.  The
+ *  conversion by the rotors at each position of the message is tabulated
+ *  once, and nothing is allocated for a trial.
+ *
+ *  A change replugs at most four characters, so the input to the rotors
+ *  changes only at the positions where the ciphertext is one of them.
+ *  Each climber records the output of the rotors at every position, and
+ *  a trial applies the rotors again only at those positions, found from
+ *  a list of the positions of each character of the ciphertext.  The
+ *  decryption is then rescored in one pass through the whole message:
+ *  about half of the n-grams hold a replugged character after a typical
+ *  change, and rescoring them one by one is slower than the pass.
+ *  @author Abhiroop Mathur
+ */
+class PlugboardSolver {
+
+    /** A plugboard found by a search, with the score of the decryption it
+     *  gives and the number of plugboards the search scored. */
+    final class Solution {
+
+        /** A solution with plugboard PLUG, mapping each character index
+         *  to its partner, and score SCORE, found by scoring TRIALS
+         *  plugboards. */
+        private Solution(int[] plug, long score, long trials) {
+            _plug = plug;
+            _score = score;
+            _trials = trials;
+        }
+
+        /** Return the cycles of my plugboard, as for Permutation, in
+         *  alphabet order. */
+        String plugboard() {
+            StringBuilder result = new StringBuilder();
+            for (int a = 0; a < _size; a++) {
+                if (a < _plug[a]) {
+                    if (result.length() > 0) {
+                        result.append(' ');
+                    }
+                    result.append('(').append(_alphabet.toChar(a))
+                        .append(_alphabet.toChar(_plug[a])).append(')');
+                }
+            }
+            return result.toString();
+        }
+
+        /** Return the natural log of the probability of my decryption by
+         *  the n-gram model. */
+        double score() {
+            return (double) _score / NgramModel.SCALE;
+        }
+
+        /** Return the number of plugboards scored by the search that
+         *  found me. */
+        long trials() {
+            return _trials;
+        }
+
+        /** Return me as a settings line of the input to Main. */
+        @Override
+        public String toString() {
+            String plugboard = plugboard();
+            return plugboard.isEmpty() ? _settings
+                : _settings + " " + plugboard;
+        }
+
+        /** Partner of each character. */
+        private final int[] _plug;
+
+        /** Score of my decryption, in units of 1/NgramModel.SCALE. */
+        private final long _score;
+
+        /** Number of plugboards scored in finding me. */
+        private final long _trials;
+    }
+
+    /** A solver for the plugboard of MACH, whose rotors are in the
+     *  position in which CIPHERTEXT was enciphered, scoring decryptions
+     *  with MODEL and allowing at most MAXPAIRS pairs of characters to be
+     *  plugged.  Blanks in CIPHERTEXT are ignored.  The plugboard of MACH
+     *  is not used, and MACH is not changed. */
+    PlugboardSolver(Machine mach, String ciphertext, NgramModel model,
+                    int maxPairs) {
+        _alphabet = mach.alphabet();
+        _size = _alphabet.size();
+        if (model.size() != _size) {
+            throw error("n-gram model is for another alphabet");
+        }
+        _model = model;
+        _cipher = indices(_alphabet, ciphertext, "Ciphertext");
+        if (_cipher.length < model.n()) {
+            throw error("ciphertext is too short");
+        }
+        _maxPairs = Math.max(0, Math.min(maxPairs, _size / 2));
+        int[] counts = new int[_size];
+        for (int c : _cipher) {
+            counts[c] += 1;
+        }
+        _byCipher = new int[_size][];
+        for (int c = 0; c < _size; c++) {
+            _byCipher[c] = new int[counts[c]];
+            counts[c] = 0;
+        }
+        for (int j = 0; j < _cipher.length; j++) {
+            int c = _cipher[j];
+            _byCipher[c][counts[c]] = j;
+            counts[c] += 1;
+        }
+
+        Machine copy = mach.copy();
+        copy.apply(mach.setting());
+        copy.setPlugboard(new Permutation("", _alphabet));
+        Machine.Setting start = copy.setting();
+        int len = _cipher.length;
+        _rows = new int[len * _size];
+        int[] column = new int[len];
+        for (int x = 0; x < _size; x++) {
+            Arrays.fill(column, x);
+            copy.apply(start);
+            copy.convert(column, 0, len, column, 0);
+            for (int j = 0; j < len; j++) {
+                _rows[j * _size + x] = column[j];
+            }
+        }
+
+        StringBuilder settings = new StringBuilder("*");
+        for (int i = 0; i < mach.numRotors(); i++) {
+            settings.append(' ').append(mach.getRotor(i).name());
+        }
+        settings.append(' ');
+        for (int i = 1; i < mach.numRotors(); i++) {
+            settings.append(_alphabet.toChar(mach.getRotor(i).setting()));
+        }
+        _settings = settings.toString();
+    }
+
+    /** Run RESTARTS climbs using POOL, each making ITERATIONS random
+     *  changes, annealing from TEMPERATURE (in units of natural log
+     *  probability, 0 for plain hill climbing) down to 0, before trying
+     *  every change until none helps.  Restart K draws its random numbers
+     *  from seed SEED + K, so the result depends only on the arguments.
+     *  Returns the best solution, the first restart's on a tie. */
+    Solution solve(ForkJoinPool pool, int restarts, int iterations,
+                   double temperature, long seed) {
+        if (restarts <= 0) {
+            throw error("must make at least one restart");
+        }
+        return pool.invoke(new Restarts(0, restarts, iterations,
+                                        temperature * NgramModel.SCALE,
+                                        seed));
+    }
+
+    /** Runs restarts LO .. HI-1, returning the best solution among
+     *  them. */
+    private class Restarts extends RecursiveTask<Solution> {
+
+        /** Restarts LO .. HI-1 making ITERATIONS random changes each,
+         *  annealing from TEMPERATURE (in units of score), restart K
+         *  drawing random numbers from seed SEED + K. */
+        Restarts(int lo, int hi, int iterations, double temperature,
+                 long seed) {
+            _lo = lo;
+            _hi = hi;
+            _iterations = iterations;
+            _temperature = temperature;
+            _seed = seed;
+        }
+
+        @Override
+        protected Solution compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                Restarts right =
+                    new Restarts(mid, _hi, _iterations, _temperature, _seed);
+                right.fork();
+                Solution left = new Restarts(_lo, mid, _iterations,
+                                             _temperature, _seed).compute();
+                Solution other = right.join();
+                Solution best = other._score > left._score ? other : left;
+                return new Solution(best._plug, best._score,
+                                    left._trials + other._trials);
+            }
+            Climber climber = new Climber(_seed + _lo);
+            climber.anneal(_iterations, _temperature);
+            climber.polish();
+            return new Solution(climber._plug, climber._score,
+                                climber._trials);
+        }
+
+        /** First restart. */
+        private final int _lo;
+
+        /** One past the last restart. */
+        private final int _hi;
+
+        /** Number of random changes made by each restart. */
+        private final int _iterations;
+
+        /** Starting temperature, in units of score. */
+        private final double _temperature;
+
+        /** Seed of the random numbers of restart 0. */
+        private final long _seed;
+
+        /** Version of my serialized form. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** One climb from a random plugboard. */
+    private class Climber {
+
+        /** A climber drawing random numbers from seed SEED, starting with
+         *  a random plugboard. */
+        Climber(long seed) {
+            _random = new SplittableRandom(seed);
+            for (int a = 0; a < _size; a++) {
+                _plug[a] = a;
+            }
+            for (int k = 0; k < _maxPairs; k++) {
+                int a = _random.nextInt(_size);
+                int b = _random.nextInt(_size);
+                if (a != b && _plug[a] == a && _plug[b] == b) {
+                    change(a, b);
+                }
+            }
+            _score = rescore();
+        }
+
+        /** Make ITERATIONS random changes, each kept if it does not lower
+         *  the score, or with probability exp(DELTA / T) if it lowers it
+         *  by -DELTA, where T falls steadily from TEMPERATURE to 0.
+         *  Leaves the best plugboard seen. */
+        void anneal(int iterations, double temperature) {
+            if (_size < 2) {
+                return;
+            }
+            long best = _score;
+            System.arraycopy(_plug, 0, _best, 0, _size);
+            for (int t = 0; t < iterations; t++) {
+                int a = _random.nextInt(_size);
+                int b = _random.nextInt(_size);
+                if (a == b || !change(a, b)) {
+                    continue;
+                }
+                long score = trial();
+                long delta = score - _score;
+                double heat = temperature * (iterations - t) / iterations;
+                if (delta >= 0 || heat > 0
+                    && _random.nextDouble() < Math.exp(delta / heat)) {
+                    _score = score;
+                    if (score > best) {
+                        best = score;
+                        System.arraycopy(_plug, 0, _best, 0, _size);
+                    }
+                } else {
+                    undo();
+                }
+            }
+            System.arraycopy(_best, 0, _plug, 0, _size);
+            _pairs = 0;
+            for (int a = 0; a < _size; a++) {
+                _pairs += _plug[a] > a ? 1 : 0;
+            }
+            _score = rescore();
+        }
+
+        /** Try every change in turn, keeping those that raise the score,
+         *  until none does. */
+        void polish() {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int a = 0; a < _size; a++) {
+                    for (int b = a + 1; b < _size; b++) {
+                        if (!change(a, b)) {
+                            continue;
+                        }
+                        long score = trial();
+                        if (score > _score) {
+                            _score = score;
+                            improved = true;
+                        } else {
+                            undo();
+                        }
+                    }
+                }
+            }
+        }
+
+        /** Connect A and B, which are distinct, as described for
+         *  PlugboardSolver, remembering how to undo it.  Returns false,
+         *  changing nothing, if that would plug more than _maxPairs
+         *  pairs. */
+        private boolean change(int a, int b) {
+            int pa = _plug[a];
+            int pb = _plug[b];
+            int before = _pairs;
+            if (pa == b) {
+                _plug[a] = a;
+                _plug[b] = b;
+                _pairs -= 1;
+            } else {
+                boolean both = pa != a && pb != b;
+                int pairs = _pairs + 1 - (pa != a ? 1 : 0)
+                    - (pb != b ? 1 : 0) + (both ? 1 : 0);
+                if (pairs > _maxPairs) {
+                    return false;
+                }
+                _plug[pa] = pa;
+                _plug[pb] = pb;
+                if (both) {
+                    _plug[pa] = pb;
+                    _plug[pb] = pa;
+                }
+                _plug[a] = b;
+                _plug[b] = a;
+                _pairs = pairs;
+            }
+            _undoA = a;
+            _undoB = b;
+            _undoPa = pa;
+            _undoPb = pb;
+            _undoPairs = before;
+            _numSaved = 0;
+            _numChanged = 0;
+            replugged(a);
+            replugged(b);
+            replugged(pa);
+            replugged(pb);
+            return true;
+        }
+
+        /** Add C to the characters replugged by the last change, unless it
+         *  is there already. */
+        private void replugged(int c) {
+            for (int k = 0; k < _numChanged; k++) {
+                if (_changed[k] == c) {
+                    return;
+                }
+            }
+            _changed[_numChanged] = c;
+            _numChanged += 1;
+        }
+
+        /** Undo the last change and its trial, if any. */
+        private void undo() {
+            for (int k = _numChanged - 1; k >= 0; k--) {
+                int[] posns = _byCipher[_changed[k]];
+                for (int m = posns.length - 1; m >= 0; m--) {
+                    _numSaved -= 1;
+                    _out[posns[m]] = _saved[_numSaved];
+                }
+            }
+            _plug[_undoPa] = _undoA;
+            _plug[_undoPb] = _undoB;
+            _plug[_undoA] = _undoPa;
+            _plug[_undoB] = _undoPb;
+            _pairs = _undoPairs;
+        }
+
+        /** Return the score of the decryption with the current plugboard,
+         *  recording the output of the rotors at each position. */
+        private long rescore() {
+            for (int j = 0; j < _cipher.length; j++) {
+                _out[j] = _rows[j * _size + _plug[_cipher[j]]];
+            }
+            return score();
+        }
+
+        /** Return the score of the decryption with the current plugboard,
+         *  which differs from the recorded one only by the last change.
+         *  The rotors are applied again only at the positions whose
+         *  ciphertext is a character replugged by the change. */
+        private long trial() {
+            for (int k = 0; k < _numChanged; k++) {
+                int c = _changed[k];
+                int input = _plug[c];
+                for (int j : _byCipher[c]) {
+                    _saved[_numSaved] = _out[j];
+                    _numSaved += 1;
+                    _out[j] = _rows[j * _size + input];
+                }
+            }
+            return score();
+        }
+
+        /** Return the score of the decryption, with the current plugboard,
+         *  of the recorded outputs of the rotors. */
+        private long score() {
+            _trials += 1;
+            int n = _model.n();
+            long result = 0;
+            int ngram = 0;
+            int j = 0;
+            for (; j < n; j++) {
+                int p = _plug[_out[j]];
+                _plain[j] = p;
+                ngram = ngram * _size + p;
+            }
+            result += _model.score(ngram);
+            for (; j < _out.length; j++) {
+                int p = _plug[_out[j]];
+                _plain[j] = p;
+                ngram = (ngram - _model.lead(_plain[j - n])) * _size + p;
+                result += _model.score(ngram);
+            }
+            return result;
+        }
+
+        /** Source of random changes. */
+        private final SplittableRandom _random;
+
+        /** Partner of each character in the current plugboard. */
+        private final int[] _plug = new int[_size];
+
+        /** The best plugboard seen while annealing. */
+        private final int[] _best = new int[_size];
+
+        /** The decryption with the current plugboard. */
+        private final int[] _plain = new int[_cipher.length];
+
+        /** The output of the rotors at each position of _plain. */
+        private final int[] _out = new int[_cipher.length];
+
+        /** The characters replugged by the last change. */
+        private final int[] _changed = new int[4];
+
+        /** Number of characters in _changed. */
+        private int _numChanged;
+
+        /** The outputs of the rotors before the current trial at the
+         *  positions it changed, in the order changed. */
+        private final int[] _saved = new int[_cipher.length];
+
+        /** Number of outputs in _saved. */
+        private int _numSaved;
+
+        /** Number of pairs plugged. */
+        private int _pairs;
+
+        /** Score of the current plugboard. */
+        private long _score;
+
+        /** Number of plugboards scored. */
+        private long _trials;
+
+        /** The first character connected by the last change. */
+        private int _undoA;
+
+        /** The second character connected by the last change. */
+        private int _undoB;
+
+        /** The partner of _undoA before the last change. */
+        private int _undoPa;
+
+        /** The partner of _undoB before the last change. */
+        private int _undoPb;
+
+        /** Number of pairs before the last change. */
+        private int _undoPairs;
+    }
+
+    /** Search for the plugboard of the ciphertext in the input, as
+     *  specified by ARGS: the name of a configuration file, the names of
+     *  the rotors (the reflector first) in one argument, their settings,
+     *  and optionally the name of the file holding the ciphertext, which
+     *  otherwise comes from the standard input.  The n-gram model is
+     *  trained on the text in the file given by --ngrams=FILE.  Prints
+     *  the log probability of the best decryption found and its settings
+     *  line.  Options --n=N sets the length of n-grams (default 3),
+     *  --pairs=P the most pairs plugged (default 10), --restarts=R the
+     *  number of climbs, --iterations=I the random changes in each,
+     *  --temperature=T the starting temperature, --seed=S the seed of
+     *  the random numbers, and --threads=N the number of threads. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--ngrams=(.+) --n=(\\d+) --pairs=(\\d+) "
+                                + "--restarts=(\\d+) --iterations=(\\d+) "
+                                + "--temperature=(\\d+(\\.\\d*)?) "
+                                + "--seed=(\\d+) --threads=(\\d+) "
+                                + "--=(.*){3,4}", args);
+            if (!options.ok() || !options.contains("--ngrams")) {
+                throw error("Usage: java enigma.PlugboardSolver "
+                            + "--ngrams=FILE [--n=N] [--pairs=P] "
+                            + "[--restarts=R] [--iterations=I] "
+                            + "[--temperature=T] [--seed=S] [--threads=N] "
+                            + "CONFIG ROTORS SETTING [INPUT]");
+            }
+            List<String> files = options.get("--");
+            Machine mach = Main.readMachine(files.get(0));
+            mach.insertRotors(files.get(1).trim().split("\\s+"));
+            mach.setRotors(files.get(2));
+            String ciphertext =
+                readText(files.size() > 3 ? files.get(3) : null);
+            NgramModel model =
+                NgramModel.read(mach.alphabet(),
+                                intOption(options, "--n", DEFAULT_N),
+                                options.getFirst("--ngrams"));
+            PlugboardSolver solver =
+                new PlugboardSolver(mach, ciphertext, model,
+                                    intOption(options, "--pairs",
+                                              DEFAULT_PAIRS));
+            Solution best =
+                solver.solve(pool(options),
+                             intOption(options, "--restarts",
+                                       DEFAULT_RESTARTS),
+                             intOption(options, "--iterations",
+                                       DEFAULT_ITERATIONS),
+                             options.contains("--temperature")
+                             ? Double.parseDouble(
+                                 options.getFirst("--temperature"))
+                             : DEFAULT_TEMPERATURE,
+                             options.contains("--seed")
+                             ? Long.parseLong(options.getFirst("--seed"))
+                             : System.nanoTime());
+            System.out.printf("%.3f %s%n", best.score(), best);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the value of integer option NAME in OPTIONS, or DEFLT if
+     *  it is absent. */
+    private static int intOption(CommandArgs options, String name,
+                                 int deflt) {
+        return options.contains(name) ? options.getInt(name) : deflt;
+    }
+
+    /** Default length of n-grams. */
+    private static final int DEFAULT_N = 3;
+
+    /** Default most pairs plugged, as on the machines of the Second World
+     *  War. */
+    private static final int DEFAULT_PAIRS = 10;
+
+    /** Default number of restarts. */
+    private static final int DEFAULT_RESTARTS = 64;
+
+    /** Default number of random changes in each restart. */
+    private static final int DEFAULT_ITERATIONS = 20000;
+
+    /** Default starting temperature. */
+    private static final double DEFAULT_TEMPERATURE = 2.0;
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Model scoring decryptions. */
+    private final NgramModel _model;
+
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+
+    /** The positions at which each character occurs in _cipher. */
+    private final int[][] _byCipher;
+
+    /** Most pairs plugged. */
+    private final int _maxPairs;
+
+    /** The conversion of character X by the rotors alone at position J of
+     *  the message, at J * _size + X. */
+    private final int[] _rows;
+
+    /** Settings line of the rotors, without a plugboard. */
+    private final String _settings;
+
+}
@@ -0,0 +1,47 @@
+package enigma;
+
+import java.io.PrintStream;
+
+/** A tracer that prints each conversion as a line of the form
+ *  "[SETTINGS] C -> ... -> RESULT", SETTINGS being the settings of all
+ *  rotors but the reflector.  This is the output of the --verbose
+ *  option.
+ *  @author Abhiroop Mathur
+ */
+class PrintTracer implements Tracer {
+
+    /** A tracer printing to OUT. */
+    PrintTracer(PrintStream out) {
+        _out = out;
+    }
+
+    @Override
+    public void start(Machine mach, int c) {
+        _alphabet = mach.alphabet();
+        _out.print('[');
+        for (int r = 1; r < mach.numRotors(); r += 1) {
+            _out.print(_alphabet.toChar(mach.getRotor(r).setting()));
+        }
+        _out.print("] ");
+        stage(c);
+    }
+
+    @Override
+    public void stage(int e) {
+        _out.print(_alphabet.toChar(e));
+        _out.print(" -> ");
+    }
+
+    @Override
+    public void end(int c) {
+        _out.print(_alphabet.toChar(c));
+        _out.println();
+    }
+
+    /** Destination of my output. */
+    private final PrintStream _out;
+
+    /** Alphabet of the machine being traced. */
+    private Alphabet _alphabet;
+
+}
@@ -14,6 +14,22 @@ class Reflector extends FixedRotor {
 
     }
 
+    /** A reflector described by SPEC, initially at setting 0. */
+    Reflector(RotorSpec spec) {
+        this(spec, new int[1], 0);
+    }
+
+    /** A reflector described by SPEC whose setting is SETTINGS[SLOT]. */
+    private Reflector(RotorSpec spec, int[] settings, int slot) {
+        super(spec, settings, slot);
+    }
+
+    @Override
+    Reflector bind(int[] settings, int slot) {
+        settings[slot] = setting();
+        return new Reflector(spec(), settings, slot);
+    }
+
 
     @Override
     void set(int posn) {
@@ -0,0 +1,117 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import static enigma.EnigmaException.*;
+
+/** A tracer that keeps the most recent conversions of a machine in a
+ *  fixed-size binary ring buffer, to be examined or dumped later.  Each
+ *  conversion is a record of width() 16-bit alphabet indices: the
+ *  settings of the rotors after the reflector, the input, the result of
+ *  each stage (see Tracer.stage), and the output.  Recording formats
+ *  nothing, so it costs little more than the stores themselves.
+ *  @author Abhiroop Mathur
+ */
+class RingTracer implements Tracer {
+
+    /** A tracer holding the last CAPACITY conversions of a machine with
+     *  NUMROTORS rotor slots. */
+    RingTracer(int capacity, int numRotors) {
+        _capacity = capacity;
+        _width = 3 * numRotors;
+        _buffer = ByteBuffer.allocateDirect(capacity * _width * 2);
+    }
+
+    @Override
+    public void start(Machine mach, int c) {
+        _field = (int) (_count % _capacity) * _width * 2;
+        _count += 1;
+        for (int r = 1; r < mach.numRotors(); r += 1) {
+            put(mach.getRotor(r).setting());
+        }
+        put(c);
+    }
+
+    @Override
+    public void stage(int e) {
+        put(e);
+    }
+
+    @Override
+    public void end(int c) {
+        put(c);
+    }
+
+    /** Return the number of values in each record. */
+    int width() {
+        return _width;
+    }
+
+    /** Return the number of conversions recorded so far, including those
+     *  no longer held. */
+    long count() {
+        return _count;
+    }
+
+    /** Store record K, counting from 0 for the first conversion
+     *  recorded, into RECORD[0 .. width()-1].  Record K must still be
+     *  held. */
+    void get(long k, int[] record) {
+        if (k < 0 || k >= _count || k < _count - _capacity) {
+            throw error("trace record %d is not held", k);
+        }
+        int base = (int) (k % _capacity) * _width * 2;
+        for (int i = 0; i < _width; i++) {
+            record[i] = _buffer.getChar(base + i * 2);
+        }
+    }
+
+    /** Write the records held, oldest first, to OUT. */
+    void dump(WritableByteChannel out) {
+        int held = (int) Math.min(_count, _capacity);
+        int first = (int) ((_count - held) % _capacity);
+        int recordBytes = _width * 2;
+        try {
+            ByteBuffer all = _buffer.duplicate();
+            all.limit(Math.min(_capacity, first + held) * recordBytes)
+                .position(first * recordBytes);
+            while (all.hasRemaining()) {
+                out.write(all);
+            }
+            if (first + held > _capacity) {
+                all.limit((first + held - _capacity) * recordBytes)
+                    .position(0);
+                while (all.hasRemaining()) {
+                    out.write(all);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not write trace: %s", excp.getMessage());
+        }
+    }
+
+    /** Store E as the next value of the current record. */
+    private void put(int e) {
+        _buffer.putChar(_field, (char) e);
+        _field += 2;
+    }
+
+    /** Number of records held. */
+    private final int _capacity;
+
+    /** Number of values per record. */
+    private final int _width;
+
+    /** The records, each _width chars, record K at K % _capacity. */
+    private final ByteBuffer _buffer;
+
+    /** Number of records started. */
+    private long _count;
+
+    /** Byte offset in _buffer of the next value to store. */
+    private int _field;
+
+}
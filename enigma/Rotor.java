@@ -2,36 +2,58 @@ package enigma;
 
 import static enigma.EnigmaException.*;
 
-/** Superclass that represents a rotor in the enigma machine.
+/** Superclass that represents a rotor in the enigma machine.  A rotor
+ *  is its spec, which may be shared with other rotors, together with a
+ *  setting kept in an element of an int array.  A rotor in a machine
+ *  keeps its setting in the machine's array of settings, so that
+ *  machines sharing specs never share settings.
  *  @author Abhiroop Mathur
  */
 class Rotor {
 
-    /** A rotor named NAME whose permutation is given by PERM. */
+    /** A rotor named NAME whose permutation is given by PERM. PERM
+     *  must not be changed afterwards. */
     Rotor(String name, Permutation perm) {
-        _name = name;
-        _permutation = perm;
-        _setting = 0;
+        this(new RotorSpec(name, perm, ""), new int[1], 0);
+    }
+
+    /** A rotor described by SPEC whose setting is SETTINGS[SLOT]. */
+    protected Rotor(RotorSpec spec, int[] settings, int slot) {
+        _spec = spec;
+        _settings = settings;
+        _slot = slot;
+    }
+
+    /** Return a rotor of my class with my spec whose setting is
+     *  SETTINGS[SLOT], which is set to my setting. */
+    Rotor bind(int[] settings, int slot) {
+        settings[slot] = setting();
+        return new Rotor(_spec, settings, slot);
+    }
+
+    /** Return my spec. */
+    RotorSpec spec() {
+        return _spec;
     }
 
     /** Return my name. */
     String name() {
-        return _name;
+        return _spec.name();
     }
 
     /** Return my alphabet. */
     Alphabet alphabet() {
-        return _permutation.alphabet();
+        return _spec.permutation().alphabet();
     }
 
     /** Return my permutation. */
     Permutation permutation() {
-        return _permutation;
+        return _spec.permutation();
     }
 
     /** Return the size of my alphabet. */
     int size() {
-        return _permutation.size();
+        return _spec.size();
     }
 
     /** Return true iff I have a ratchet and can move. */
@@ -46,41 +68,43 @@ class Rotor {
 
     /** Return my current setting. */
     int setting() {
-        return _setting;
+        return _settings[_slot];
     }
 
     /** Set setting() to POSN.  */
     void set(int posn) {
-        _setting = permutation().wrap(posn);
+        _settings[_slot] = permutation().wrap(posn);
     }
 
     /** Set setting() to character CPOSN. */
     void set(char cposn) {
-        _setting = alphabet().toInt(cposn);
+        _settings[_slot] = alphabet().toInt(cposn);
     }
 
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int result = permutation().wrap(
-                (_permutation.permute
-                        (p + _permutation.wrap(_setting)) - _setting));
-        if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(result));
-        }
-        return result;
+        return _spec.forward(_settings[_slot], p);
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int result = permutation().wrap(
-                (_permutation.invert
-                        (e + _permutation.wrap(_setting)) - _setting));
-        if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(result));
-        }
-        return result;
+        return _spec.backward(_settings[_slot], e);
+    }
+
+    /** Return the conversion of P (an integer in the range 0..size()-1)
+     *  according to my permutation when I am at setting POSN, without
+     *  changing or tracing my setting. */
+    int forward(int posn, int p) {
+        return _spec.forward(posn, p);
+    }
+
+    /** Return the conversion of E (an integer in the range 0..size()-1)
+     *  according to the inverse of my permutation when I am at setting
+     *  POSN, without changing or tracing my setting. */
+    int backward(int posn, int e) {
+        return _spec.backward(posn, e);
     }
 
     /** Returns the positions of the notches, as a string giving the letters
@@ -95,22 +119,27 @@ class Rotor {
         return false;
     }
 
+    /** Returns true iff I would be at a notch at setting POSN. */
+    boolean notchAt(int posn) {
+        return false;
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
 
     @Override
     public String toString() {
-        return "Rotor " + _name;
+        return "Rotor " + name();
     }
 
-    /** My name. */
-    private final String _name;
+    /** My name, wiring and notches. */
+    private final RotorSpec _spec;
 
-    /** The permutation implemented by this rotor in its 0 position. */
-    private Permutation _permutation;
+    /** Holds my setting, at _settings[_slot]. */
+    private final int[] _settings;
 
-    /** Position of the rotor. */
-    protected int _setting;
+    /** Index of my setting in _settings. */
+    private final int _slot;
 
 }
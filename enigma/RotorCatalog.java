@@ -0,0 +1,119 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Supplier;
+
+/** The rotors available to a machine, indexed by name.  A catalog holds
+ *  rotors already built, or the means of building each rotor (from its
+ *  description in a configuration file, or from its record in a
+ *  snapshot), which it uses the first time the rotor is asked for,
+ *  keeping the rotor thereafter.  A catalog may be shared by machines
+ *  used in different threads.
+ *  @author Abhiroop Mathur
+ */
+class RotorCatalog {
+
+    /** An empty catalog. */
+    RotorCatalog() {
+    }
+
+    /** A catalog of ROTORS. */
+    RotorCatalog(Collection<Rotor> rotors) {
+        for (Rotor rotor : rotors) {
+            Entry entry = new Entry(null);
+            entry._rotor = rotor;
+            put(rotor.name(), entry);
+        }
+    }
+
+    /** Add the rotor named NAME, which BUILDER builds when it is first
+     *  asked for. */
+    void add(String name, Supplier<Rotor> builder) {
+        put(name, new Entry(builder));
+    }
+
+    /** Return the rotor named NAME, or null if there is none, or more
+     *  than one. */
+    Rotor get(String name) {
+        Entry entry = _index.get(name);
+        if (entry == null || _duplicates.contains(name)) {
+            return null;
+        }
+        return build(entry, true);
+    }
+
+    /** Return the number of rotors. */
+    int size() {
+        return _entries.size();
+    }
+
+    /** Return all my rotors, in the order they were added, building any
+     *  not yet built. */
+    List<Rotor> all() {
+        ArrayList<Rotor> result = new ArrayList<>();
+        for (Entry entry : _entries) {
+            result.add(build(entry, true));
+        }
+        return result;
+    }
+
+    /** Return rotor #K (0 <= K < size()) in the order added, building it
+     *  if it has not been built, but without keeping it, so that all my
+     *  rotors may be visited without holding all of them at once. */
+    Rotor visit(int k) {
+        return build(_entries.get(k), false);
+    }
+
+    /** Record ENTRY as the rotor named NAME. */
+    private void put(String name, Entry entry) {
+        if (_index.putIfAbsent(name, entry) != null) {
+            _duplicates.add(name);
+        }
+        _entries.add(entry);
+    }
+
+    /** Return the rotor of ENTRY, building it if need be, and keeping it
+     *  if KEEP. */
+    private Rotor build(Entry entry, boolean keep) {
+        synchronized (entry) {
+            if (entry._rotor != null) {
+                return entry._rotor;
+            }
+            Rotor rotor = entry._builder.get();
+            if (keep) {
+                entry._rotor = rotor;
+                entry._builder = null;
+            }
+            return rotor;
+        }
+    }
+
+    /** How a rotor is built, and the rotor once built. */
+    private static class Entry {
+
+        /** A rotor built by BUILDER. */
+        Entry(Supplier<Rotor> builder) {
+            _builder = builder;
+        }
+
+        /** Builds the rotor, or null once it is built. */
+        private Supplier<Rotor> _builder;
+
+        /** The rotor, once built. */
+        private Rotor _rotor;
+    }
+
+    /** Each rotor name, with the first entry of that name. */
+    private final HashMap<String, Entry> _index = new HashMap<>();
+
+    /** Names of more than one rotor. */
+    private final HashSet<String> _duplicates = new HashSet<>();
+
+    /** All entries, in the order added. */
+    private final ArrayList<Entry> _entries = new ArrayList<>();
+
+}
@@ -0,0 +1,131 @@
+package enigma;
+
+/** The unchanging description of a rotor: its name, wiring, notches, and
+ *  the tables derived from them.  A spec holds no setting, so one spec
+ *  may be shared by any number of rotors in any number of machines,
+ *  including machines used concurrently.
+ *  @author Abhiroop Mathur
+ */
+final class RotorSpec {
+
+    /** The spec of a rotor named NAME whose permutation is given by PERM
+     *  and whose notches are at the characters in NOTCHES.  PERM must not
+     *  be changed afterwards. */
+    RotorSpec(String name, Permutation perm, String notches) {
+        this(name, perm, notches, shifted(perm, false), shifted(perm, true));
+    }
+
+    /** The spec of a rotor as for RotorSpec(NAME, PERM, NOTCHES) whose
+     *  shifted wiring tables (see _forward and _backward) are FORWARD and
+     *  BACKWARD, both null if they are not tabulated.  None of PERM,
+     *  FORWARD and BACKWARD may be changed afterwards. */
+    RotorSpec(String name, Permutation perm, String notches,
+              int[] forward, int[] backward) {
+        _name = name;
+        _permutation = perm;
+        _notches = notches;
+        _size = perm.size();
+        _notchAt = new boolean[_size];
+        for (int i = 0; i < notches.length(); i++) {
+            int posn = perm.alphabet().toInt(notches.charAt(i));
+            if (posn >= 0) {
+                _notchAt[posn] = true;
+            }
+        }
+        _forward = forward;
+        _backward = backward;
+    }
+
+    /** Return the wiring of PERM shifted to each setting, or of its
+     *  inverse if INVERSE, or null if PERM is too large to tabulate. */
+    private static int[] shifted(Permutation perm, boolean inverse) {
+        int size = perm.size();
+        if (size > TABLE_LIMIT) {
+            return null;
+        }
+        int[] table = new int[size * size];
+        for (int s = 0; s < size; s++) {
+            for (int p = 0; p < size; p++) {
+                int q = inverse ? perm.invert(p + s) : perm.permute(p + s);
+                table[s * size + p] = perm.wrap(q - s);
+            }
+        }
+        return table;
+    }
+
+    /** Return true iff my shifted wiring is tabulated. */
+    boolean tabulated() {
+        return _forward != null;
+    }
+
+    /** Return my name. */
+    String name() {
+        return _name;
+    }
+
+    /** Return my permutation. */
+    Permutation permutation() {
+        return _permutation;
+    }
+
+    /** Return the size of my alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return my notches, as a string of the characters at which they
+     *  occur. */
+    String notches() {
+        return _notches;
+    }
+
+    /** Returns true iff there is a notch at setting POSN. */
+    boolean notchAt(int posn) {
+        return _notchAt[posn];
+    }
+
+    /** Return the conversion of P (an integer in the range 0..size()-1)
+     *  according to my permutation at setting POSN. */
+    int forward(int posn, int p) {
+        if (_forward != null) {
+            return _forward[posn * _size + p];
+        }
+        return _permutation.wrap(_permutation.permute(p + posn) - posn);
+    }
+
+    /** Return the conversion of E (an integer in the range 0..size()-1)
+     *  according to the inverse of my permutation at setting POSN. */
+    int backward(int posn, int e) {
+        if (_backward != null) {
+            return _backward[posn * _size + e];
+        }
+        return _permutation.wrap(_permutation.invert(e + posn) - posn);
+    }
+
+    /** Largest alphabet for which the shifted wiring is tabulated. */
+    private static final int TABLE_LIMIT = 256;
+
+    /** My name. */
+    private final String _name;
+
+    /** The permutation implemented at setting 0. */
+    private final Permutation _permutation;
+
+    /** My notches. */
+    private final String _notches;
+
+    /** The size of my alphabet. */
+    private final int _size;
+
+    /** True at the index of each notch. */
+    private final boolean[] _notchAt;
+
+    /** forward(S, P) is _forward[S * _size + P], or null if my alphabet is
+     *  too large to tabulate. */
+    private final int[] _forward;
+
+    /** backward(S, E) is _backward[S * _size + E], or null if my alphabet
+     *  is too large to tabulate. */
+    private final int[] _backward;
+
+}
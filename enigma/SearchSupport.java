@@ -0,0 +1,161 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Parts shared by the searches for machine settings (Bombe,
+ *  CoincidenceSearch and PlugboardSolver) and by their command-line
+ *  programs: the rotor orders to search, the ciphertext, the pool to
+ *  search with, and progress reports.
+ *  @author Abhiroop Mathur
+ */
+final class SearchSupport {
+
+    /** Not instantiable. */
+    private SearchSupport() {
+    }
+
+    /** Receives reports of the progress of a search. */
+    interface Progress {
+        /** Report that DONE of the TOTAL start positions have been
+         *  tried. */
+        void report(long done, long total);
+    }
+
+    /** Return every rotor order of MACH's available rotors: a reflector,
+     *  then distinct rotors that do not rotate in the slots before the
+     *  first moving slot, then distinct rotating rotors. */
+    static List<String[]> orders(Machine mach) {
+        ArrayList<Rotor> reflectors = new ArrayList<>();
+        ArrayList<Rotor> fixed = new ArrayList<>();
+        ArrayList<Rotor> moving = new ArrayList<>();
+        for (Rotor rotor : mach.availableRotors()) {
+            if (rotor.reflecting()) {
+                reflectors.add(rotor);
+            } else if (rotor.rotates()) {
+                moving.add(rotor);
+            } else {
+                fixed.add(rotor);
+            }
+        }
+        ArrayList<String[]> result = new ArrayList<>();
+        String[] order = new String[mach.numRotors()];
+        for (Rotor reflector : reflectors) {
+            order[0] = reflector.name();
+            addOrders(order, 1, StepTable.firstMoving(mach), fixed, moving,
+                      new boolean[fixed.size() + moving.size()], result);
+        }
+        return result;
+    }
+
+    /** Add to RESULT every completion of ORDER from slot SLOT on, using
+     *  distinct rotors not marked in USED, FIXED rotors before slot
+     *  FIRST, and MOVING rotors from there on.  USED marks FIXED rotors
+     *  first, then MOVING rotors. */
+    private static void addOrders(String[] order, int slot, int first,
+                                  List<Rotor> fixed, List<Rotor> moving,
+                                  boolean[] used, List<String[]> result) {
+        if (slot == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        List<Rotor> choices = slot < first ? fixed : moving;
+        int base = slot < first ? 0 : fixed.size();
+        for (int k = 0; k < choices.size(); k++) {
+            if (!used[base + k]) {
+                used[base + k] = true;
+                order[slot] = choices.get(k).name();
+                addOrders(order, slot + 1, first, fixed, moving, used,
+                          result);
+                used[base + k] = false;
+            }
+        }
+    }
+
+    /** Return the indices in ALPHABET of the characters of S other than
+     *  blanks, where S is the WHAT. */
+    static int[] indices(Alphabet alphabet, String s, String what) {
+        s = s.replace(" ", "");
+        int[] result = new int[s.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = alphabet.toInt(s.charAt(i));
+            if (result[i] < 0) {
+                throw error("%s contains characters outside of the "
+                            + "alphabet!", what);
+            }
+        }
+        return result;
+    }
+
+    /** Return the rotor orders to search in MACH: the one given by the
+     *  --rotors option in OPTIONS, or else all of them. */
+    static List<String[]> orders(Machine mach, CommandArgs options) {
+        if (!options.contains("--rotors")) {
+            return orders(mach);
+        }
+        List<String[]> result = new ArrayList<>();
+        result.add(options.getFirst("--rotors").trim().split("\\s+"));
+        return result;
+    }
+
+    /** Return the lines of the file named NAME, or of the standard input
+     *  if NAME is null, joined with their surrounding blanks removed. */
+    static String readText(String name) {
+        LineReader input =
+            name == null ? LineReader.stdin() : LineReader.open(name);
+        StringBuilder result = new StringBuilder();
+        while (input.hasNextLine()) {
+            input.nextLine();
+            result.append(input.line().trim());
+        }
+        input.close();
+        return result.toString();
+    }
+
+    /** Return the pool to search with, as given by the --threads option
+     *  in OPTIONS, which must be from 1 to MAX_THREADS. */
+    static ForkJoinPool pool(CommandArgs options) {
+        if (!options.contains("--threads")) {
+            return ForkJoinPool.commonPool();
+        }
+        int threads;
+        try {
+            threads = Integer.parseInt(options.getFirst("--threads"));
+        } catch (NumberFormatException excp) {
+            threads = 0;
+        }
+        if (threads < 1 || threads > MAX_THREADS) {
+            throw error("thread count must be from 1 to %d", MAX_THREADS);
+        }
+        return new ForkJoinPool(threads);
+    }
+
+    /** Return a Progress printing each whole percentage reached on the
+     *  standard error if OPTIONS contains --progress, and otherwise
+     *  null. */
+    static Progress progress(CommandArgs options) {
+        if (!options.contains("--progress")) {
+            return null;
+        }
+        long[] reported = { -1 };
+        return (done, total) -> {
+            synchronized (reported) {
+                long percent = done * 100 / total;
+                if (percent > reported[0]) {
+                    reported[0] = percent;
+                    System.err.printf("%d%% of %d positions%n", percent,
+                                      total);
+                }
+            }
+        };
+    }
+
+    /** Largest number of threads a ForkJoinPool allows. */
+    static final int MAX_THREADS = 0x7fff;
+
+}
@@ -0,0 +1,255 @@
+package enigma;
+
+/** The stepping of the moving rotors of a machine.  The settings of
+ *  the moving rotors are numbered as states in mixed radix, the leftmost
+ *  moving rotor being most significant.  Stepping maps each state to the
+ *  next, so every state leads, after at most a few steps, into a cycle.
+ *  Knowing the cycles, the state any number of steps ahead of a given
+ *  state can be found without stepping through the states in between.
+ *  @author Abhiroop Mathur
+ */
+class StepTable {
+
+    /** The stepping of the moving rotors currently in MACH, for which
+     *  statesFor(MACH) must not be -1. */
+    StepTable(Machine mach) {
+        _size = mach.alphabet().size();
+        _numRotors = mach.numRotors();
+        _first = firstMoving(mach);
+        _states = (int) statesFor(mach);
+        _next = new int[_states];
+
+        int[] posn = new int[_numRotors];
+        for (int s = 0; s < _states; s++) {
+            decode(s, posn);
+            mach.step(posn);
+            _next[s] = encode(posn);
+        }
+        findCycles();
+    }
+
+    /** Return the slot of the leftmost rotor of MACH that can move.  The
+     *  fast rotor moves even when MACH has no pawls. */
+    static int firstMoving(Machine mach) {
+        return Math.min(mach.numRotors() - mach.numPawls(),
+                        mach.numRotors() - 1);
+    }
+
+    /** Return the number of states of the moving rotors of MACH, or -1
+     *  if there are too many to number. */
+    static long statesFor(Machine mach) {
+        int size = mach.alphabet().size();
+        long states = 1;
+        for (int i = firstMoving(mach); i < mach.numRotors(); i++) {
+            states *= size;
+            if (states > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return states;
+    }
+
+    /** Fill in _order, _index, _cycle and _cycleStart by
+     *  following each state until it reaches a state already seen. */
+    private void findCycles() {
+        _index = new int[_states];
+        _cycle = new int[_states];
+        _order = new int[_states];
+        int[] starts = new int[_states + 1];
+        byte[] seen = new byte[_states];
+        int[] path = new int[_states];
+        int ordered = 0;
+        int cycles = 0;
+
+        for (int s0 = 0; s0 < _states; s0++) {
+            int depth = 0;
+            int s = s0;
+            while (seen[s] == UNSEEN) {
+                seen[s] = ON_PATH;
+                path[depth] = s;
+                depth += 1;
+                s = _next[s];
+            }
+            int top = 0;
+            if (seen[s] == ON_PATH) {
+                starts[cycles] = ordered;
+                int t = s;
+                do {
+                    _index[t] = ordered;
+                    _cycle[t] = cycles;
+                    _order[ordered] = t;
+                    ordered += 1;
+                    t = _next[t];
+                } while (t != s);
+                cycles += 1;
+                while (path[top] != s) {
+                    top += 1;
+                }
+                for (int i = top; i < depth; i++) {
+                    seen[path[i]] = DONE;
+                }
+            } else {
+                top = depth;
+            }
+            for (int i = 0; i < top; i++) {
+                _index[path[i]] = -1;
+                seen[path[i]] = DONE;
+            }
+        }
+        starts[cycles] = ordered;
+        _cycleStart = new int[cycles + 1];
+        System.arraycopy(starts, 0, _cycleStart, 0, cycles + 1);
+    }
+
+    /** Return the number of states. */
+    int states() {
+        return _states;
+    }
+
+    /** Return the state following state S. */
+    int next(int s) {
+        return _next[s];
+    }
+
+    /** Return the successor of each state.  The result must not be
+     *  modified. */
+    int[] successors() {
+        return _next;
+    }
+
+    /** Return the state N steps after state S. */
+    int jump(int s, long n) {
+        while (n > 0 && _index[s] < 0) {
+            s = _next[s];
+            n -= 1;
+        }
+        if (n == 0) {
+            return s;
+        }
+        int c = _cycle[s];
+        int start = _cycleStart[c];
+        int length = _cycleStart[c + 1] - start;
+        long k = (_index[s] - start + n % length) % length;
+        return _order[start + (int) k];
+    }
+
+    /** Return the number of states that lie on cycles. */
+    int cyclic() {
+        return _cycleStart[_cycleStart.length - 1];
+    }
+
+    /** Return the state at position K of the states that lie on cycles,
+     *  which are numbered 0 .. cyclic()-1, each cycle occupying
+     *  consecutive positions in stepping order. */
+    int ordered(int k) {
+        return _order[k];
+    }
+
+    /** Return the position of state S among the states on cycles, or -1
+     *  if S is not on a cycle. */
+    int position(int s) {
+        return _index[s];
+    }
+
+    /** Return the first position of the cycle containing state S, which
+     *  must be on a cycle. */
+    int cycleStart(int s) {
+        return _cycleStart[_cycle[s]];
+    }
+
+    /** Return one past the last position of the cycle containing state
+     *  S, which must be on a cycle. */
+    int cycleEnd(int s) {
+        return _cycleStart[_cycle[s] + 1];
+    }
+
+    /** Return the length of the cycle that state S eventually reaches. */
+    int period(int s) {
+        while (_index[s] < 0) {
+            s = _next[s];
+        }
+        int c = _cycle[s];
+        return _cycleStart[c + 1] - _cycleStart[c];
+    }
+
+    /** Return the state whose moving rotor settings are those of POSN,
+     *  which holds a setting for each rotor slot. */
+    int encode(int[] posn) {
+        int s = 0;
+        for (int i = _first; i < _numRotors; i++) {
+            s = s * _size + posn[i];
+        }
+        return s;
+    }
+
+    /** Store the moving rotor settings of state S into POSN, which holds
+     *  a setting for each rotor slot. */
+    void decode(int s, int[] posn) {
+        for (int i = _numRotors - 1; i >= _first; i--) {
+            posn[i] = s % _size;
+            s /= _size;
+        }
+    }
+
+    /** Return the state of the moving rotors of MACH. */
+    int state(Machine mach) {
+        int s = 0;
+        for (int i = _first; i < _numRotors; i++) {
+            s = s * _size + mach.getRotor(i).setting();
+        }
+        return s;
+    }
+
+    /** Set the moving rotors of MACH to state S. */
+    void setRotors(Machine mach, int s) {
+        for (int i = _numRotors - 1; i >= _first; i--) {
+            Rotor rotor = mach.getRotor(i);
+            if (rotor.rotates()) {
+                rotor.set(s % _size);
+            }
+            s /= _size;
+        }
+    }
+
+    /** Largest number of moving rotor settings for which a StepTable
+     *  is built. */
+    static final int MAX_STATES = 1 << 22;
+
+    /** Marks a state not yet visited by findCycles. */
+    private static final byte UNSEEN = 0;
+
+    /** Marks a state on the path findCycles is following. */
+    private static final byte ON_PATH = 1;
+
+    /** Marks a state whose cycle findCycles has found. */
+    private static final byte DONE = 2;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Slot of the leftmost moving rotor. */
+    private final int _first;
+
+    /** Number of states. */
+    private final int _states;
+
+    /** Successor of each state. */
+    private final int[] _next;
+
+    /** The states that lie on cycles, each cycle in stepping order. */
+    private int[] _order;
+
+    /** Position of each state in _order, or -1 if it is not on a
+     *  cycle. */
+    private int[] _index;
+
+    /** Number of the cycle containing each state on a cycle. */
+    private int[] _cycle;
+
+    /** Cycle C occupies _order[_cycleStart[C] .. _cycleStart[C+1]-1]. */
+    private int[] _cycleStart;
+
+}
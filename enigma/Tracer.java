@@ -0,0 +1,42 @@
+package enigma;
+
+/** Receives the steps of each character conversion performed by a
+ *  machine.  A machine is given its tracer when it is constructed; the
+ *  machine's fast paths (the composite cache, keystream tables, and
+ *  parallel conversion) are used only when the tracer is NONE.  Copies
+ *  of a machine share its tracer, so a tracer given to machines used in
+ *  several threads sees their calls interleaved.
+ *  @author Abhiroop Mathur
+ */
+interface Tracer {
+
+    /** A tracer that records nothing. */
+    Tracer NONE = new Tracer() {
+        @Override
+        public void start(Machine mach, int c) {
+        }
+
+        @Override
+        public void stage(int e) {
+        }
+
+        @Override
+        public void end(int c) {
+        }
+    };
+
+    /** Called when MACH, whose rotors have just advanced, begins
+     *  converting C (an index into its alphabet). */
+    void start(Machine mach, int c);
+
+    /** Called with the result E of each stage of the conversion begun by
+     *  the last call to start: the plugboard, each rotor after the
+     *  reflector from right to left, then each of those rotors again from
+     *  left to right. */
+    void stage(int e);
+
+    /** Called with the result C of the conversion, after the plugboard
+     *  has been applied again. */
+    void end(int c);
+
+}
@@ -16,7 +16,12 @@ public class UnitTest {
         }
         System.exit(textui.runClasses(PermutationTest.class,
                 MovingRotorTest.class,
-                MachineTest.class));
+                MachineTest.class,
+                AlphabetTest.class,
+                LineReaderTest.class,
+                OutputWriterTest.class,
+                ConfigSnapshotTest.class,
+                PipelineTest.class));
     }
 
 }
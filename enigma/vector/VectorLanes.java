@@ -0,0 +1,146 @@
+package enigma;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.EQ;
+import static jdk.incubator.vector.VectorOperators.GE;
+import static jdk.incubator.vector.VectorOperators.GT;
+import static jdk.incubator.vector.VectorOperators.LT;
+import static jdk.incubator.vector.VectorOperators.MAX;
+import static jdk.incubator.vector.VectorOperators.NE;
+
+/** A LaneEngine that converts as many messages at once as an IntVector
+ *  has lanes.  Each lane holds one message's rotor settings; rotor
+ *  wiring, notches and plugboards are read with gather loads from the
+ *  engine's tables, and stepping is done with lane masks computed as
+ *  Machine.advanceRotors decides which rotors move.  Lanes whose messages
+ *  have ended are masked off until the longest message of the group is
+ *  done.
+ *
+ *  This class uses the incubating module jdk.incubator.vector, so it is
+ *  compiled apart from the rest of the package, with --add-modules
+ *  jdk.incubator.vector, and is used only when the JVM is run with that
+ *  option; LaneEngine.forMachine falls back to LaneEngine otherwise.
+ *  It belongs to package enigma, though its source is in enigma/vector,
+ *  because it extends the package-private LaneEngine and reads the
+ *  package-private Machine; the "vector" target of the Makefile
+ *  compiles it into the package's class directory.
+ *  @author Abhiroop Mathur
+ */
+final class VectorLanes extends LaneEngine {
+
+    /** An engine converting with the rotors and plugboard now in
+     *  MACH. */
+    VectorLanes(Machine mach) {
+        super(mach);
+    }
+
+    @Override
+    boolean vectorized() {
+        return true;
+    }
+
+    @Override
+    void convert(int[] msgs, int[] starts, int count, int[] settings,
+                 int[] plugboards, int[] result) {
+        int lanes = SPECIES.length();
+        int[] index = new int[lanes];
+        int last = _numRotors - 1;
+        IntVector lane = IntVector.zero(SPECIES).addIndex(1);
+        IntVector[] posn = new IntVector[_numRotors];
+        VectorMask<Integer>[] notched = newMasks(_numRotors);
+        for (int k0 = 0; k0 < count; k0 += lanes) {
+            VectorMask<Integer> live =
+                SPECIES.indexInRange(0, count - k0);
+            IntVector msg = IntVector.fromArray(SPECIES, starts, k0, live);
+            IntVector end =
+                IntVector.fromArray(SPECIES, starts, k0 + 1, live);
+            IntVector length = end.sub(msg);
+            int steps = length.reduceLanes(MAX);
+            for (int i = 1; i <= last; i++) {
+                posn[i] = gather(settings,
+                                 lane.add(k0).mul(last).add(i - 1), live,
+                                 index);
+            }
+            int[] plugs = plugboards == null ? _plugboard : plugboards;
+            IntVector plug = plugboards == null ? IntVector.zero(SPECIES)
+                : lane.add(k0).mul(_size);
+
+            for (int t = 0; t < steps; t++) {
+                VectorMask<Integer> active = length.compare(GT, t);
+                for (int i = _first; i <= last; i++) {
+                    notched[i] = gather(_notches[i], posn[i], live, index)
+                        .compare(NE, 0);
+                }
+                for (int i = _first; i < last; i++) {
+                    if (!_rotates[i]) {
+                        continue;
+                    }
+                    VectorMask<Integer> moves = notched[i + 1];
+                    if (i > _first) {
+                        moves = moves.or(notched[i]);
+                    }
+                    posn[i] = advance(posn[i], moves);
+                }
+                if (_rotates[last]) {
+                    posn[last] = advance(posn[last], live);
+                }
+
+                IntVector at = msg.add(t);
+                IntVector c = gather(msgs, at, active, index);
+                c = gather(plugs, plug.add(c), active, index);
+                for (int i = last; i > 0; i--) {
+                    c = shifted(_forward[i], posn[i], c, active, index);
+                }
+                c = gather(_forward[0], c, active, index);
+                for (int i = 1; i <= last; i++) {
+                    c = shifted(_inverse[i], posn[i], c, active, index);
+                }
+                c = gather(plugs, plug.add(c), active, index);
+                at.intoArray(index, 0);
+                c.intoArray(result, 0, index, 0, active);
+            }
+        }
+    }
+
+    /** Return POSN with the settings in the lanes of MOVES advanced by
+     *  one. */
+    private IntVector advance(IntVector posn, VectorMask<Integer> moves) {
+        IntVector result = posn.add(1, moves);
+        return result.blend(0, result.compare(EQ, _size));
+    }
+
+    /** Return the conversion of the indices C by the permutation TABLE of
+     *  rotors at the settings POSN, in the lanes of ACTIVE, using INDEX
+     *  as for gather. */
+    private IntVector shifted(int[] table, IntVector posn, IntVector c,
+                              VectorMask<Integer> active, int[] index) {
+        IntVector p = c.add(posn);
+        p = p.sub(_size, p.compare(GE, _size));
+        IntVector e = gather(table, p, active, index).sub(posn);
+        return e.add(_size, e.compare(LT, 0));
+    }
+
+    /** Return the elements of TABLE at the indices AT in the lanes of
+     *  ACTIVE, and 0 in the others.  INDEX, which has a lane's worth of
+     *  elements, holds the indices for the gather; each call to convert
+     *  has its own, so that threads may share an engine. */
+    private IntVector gather(int[] table, IntVector at,
+                             VectorMask<Integer> active, int[] index) {
+        at.intoArray(index, 0);
+        return IntVector.fromArray(SPECIES, table, 0, index, 0, active);
+    }
+
+    /** Return an array of N masks. */
+    @SuppressWarnings("unchecked")
+    private static VectorMask<Integer>[] newMasks(int n) {
+        return (VectorMask<Integer>[]) new VectorMask<?>[n];
+    }
+
+    /** The vector shape used. */
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_PREFERRED;
+
+}